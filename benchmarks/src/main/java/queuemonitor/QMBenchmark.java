@@ -0,0 +1,160 @@
+package queuemonitor;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the hot paths of the Queue Monitor, run against a
+ * SyntheticTicketSource so that no KACE server is needed.
+ * Build with mvn package, then run with:
+ * java -jar benchmarks/target/benchmarks.jar [-p size=1000]
+ *
+ * @author bshteinfeld
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class QMBenchmark {
+
+    // Number of open tickets in the queue
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private SyntheticTicketSource source;
+    private IncrementalPoller poller;
+    private TicketStore store;
+    private List<Ticket> openTickets;
+    // Tickets formatted by formatLineCached, few enough to all stay in the
+    // cache of the formatter, as the tickets on the screen do
+    private List<Ticket> shownTickets;
+    private TicketClassifier classifier;
+    private Date now;
+    private RollingAggregator aggregator;
+    private List<Ticket> delays;
+    private TicketFormatter formatter;
+    // A board which is never shown, so it may be used off the EDT, and the
+    // lines of the delays before and after the first one closes
+    private DepartureBoard board;
+    private List<String> lines;
+    private List<String> shiftedLines;
+    private boolean shifted;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Clock clock = Clock.systemDefaultZone();
+        source = new SyntheticTicketSource(size, Math.max(1, size / 100), 42, clock);
+        poller = new IncrementalPoller(source);
+        poller.poll();
+        store = poller.getStore();
+        openTickets = source.fetchOpenTickets();
+        shownTickets = openTickets.subList(0,
+                Math.min(openTickets.size(), TicketFormatter.MAX_CACHED / 2));
+        classifier = new TicketClassifier(TicketRules.defaults());
+        now = new Date(clock.millis());
+        aggregator = new RollingAggregator(90);
+        for (Ticket t : source.fetchClosedTickets(aggregator.getMaxDays())) {
+            aggregator.record(t.getID(), t.getCreatedSeconds(), t.getCloseDuration());
+        }
+        delays = classifier.classify(1, store, -1, -1, now).getDelays();
+        formatter = new TicketFormatter();
+
+        lines = new ArrayList<String>();
+        shiftedLines = new ArrayList<String>();
+        lines.add("Delays:");
+        lines.add("");
+        shiftedLines.addAll(lines);
+        for (int i = 0; i < delays.size(); i++) {
+            lines.add(formatter.line(delays.get(i)));
+            if (i > 0) {
+                shiftedLines.add(formatter.line(delays.get(i)));
+            }
+        }
+        board = new DepartureBoard(new Font(Font.MONOSPACED, Font.BOLD, 24));
+        board.setTransitions(false);
+        board.setSize(480, 1080);
+        board.show(lines, Color.RED);
+        // Paint once so the back buffer exists
+        BufferedImage screen = new BufferedImage(480, 1080, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = screen.createGraphics();
+        board.paint(g);
+        g.dispose();
+    }
+
+    @Benchmark
+    public int classify() {
+        return classifier.classify(1, store, -1, -1, now).getNumOpen();
+    }
+
+    @Benchmark
+    public Object ticketAndTitleDate() {
+        Ticket t = openTickets.get(next++ % openTickets.size());
+        Ticket copy = new Ticket(t.getID(), t.getQueueID(), t.getTitle(),
+                new Timestamp(t.getCreatedSeconds() * 1000),
+                t.getOwnerID(), t.getCategoryID(), t.getStatusID(),
+                t.getState(), t.getModified(), t.getCloseDuration());
+        return copy.extractDateFromTitle();
+    }
+
+    /*
+     * Lines of tickets which are cached, apart from the first round through
+     * the shown tickets, which the warm-up covers.
+     */
+    @Benchmark
+    public String formatLineCached() {
+        return formatter.line(shownTickets.get(next++ % shownTickets.size()));
+    }
+
+    /*
+     * Lines formatted without the cache, as for a ticket never shown before.
+     */
+    @Benchmark
+    public String formatLineCold() {
+        return TicketFormatter.format(openTickets.get(next++ % openTickets.size()));
+    }
+
+    /*
+     * The first delay closes and reopens, so every row of the board below
+     * the heading changes and is drawn again.
+     */
+    @Benchmark
+    public void boardRows() {
+        shifted = !shifted;
+        board.show(shifted ? shiftedLines : lines, Color.RED);
+    }
+
+    @Benchmark
+    public long closingTimeAggregates() {
+        long seconds = System.currentTimeMillis() / 1000;
+        return aggregator.average(7, seconds) + aggregator.average(30, seconds)
+                + aggregator.percentile(30, 90, seconds);
+    }
+
+    @Benchmark
+    public int incrementalPoll() {
+        poller.poll();
+        return store.size();
+    }
+}
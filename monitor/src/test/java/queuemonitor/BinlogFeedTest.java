@@ -0,0 +1,124 @@
+package queuemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.github.shyiko.mysql.binlog.event.DeleteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.Event;
+import com.github.shyiko.mysql.binlog.event.EventData;
+import com.github.shyiko.mysql.binlog.event.EventHeaderV4;
+import com.github.shyiko.mysql.binlog.event.EventType;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+import java.io.EOFException;
+import java.util.Properties;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Feeds events of the binary log to a BinlogFeed through its BinlogClient,
+ * without a server, and checks when the feed asks for a poll.
+ *
+ * @author bshteinfeld
+ */
+public class BinlogFeedTest {
+
+    private BinlogFeed feed;
+    private BinlogClient client;
+    // Number of polls the feed asked for
+    private int requests;
+
+    @Before
+    public void createFeed() {
+        Properties props = new Properties();
+        props.setProperty("binlog.user", "repl");
+        feed = new BinlogFeed(new QMConfig(props), new Runnable() {
+            @Override
+            public void run() {
+                requests++;
+            }
+        });
+        client = new BinlogClient(feed, "localhost", 3306, "repl", "", 4747);
+    }
+
+    /*
+     * Rows written, updated or deleted in the ticket table ask for a poll,
+     * rows of other tables do not.
+     */
+    @Test
+    public void ticketRowsRequestPoll() {
+        client.onEvent(tableMap(70, "ORG1", "HD_TICKET"));
+        client.onEvent(tableMap(71, "ORG1", "HD_TICKET_CHANGE"));
+        client.onEvent(tableMap(72, "ORG2", "HD_TICKET"));
+        assertEquals(0, requests);
+
+        UpdateRowsEventData update = new UpdateRowsEventData();
+        update.setTableId(70);
+        client.onEvent(event(EventType.EXT_UPDATE_ROWS, update));
+        assertEquals(1, requests);
+
+        WriteRowsEventData write = new WriteRowsEventData();
+        write.setTableId(71);
+        client.onEvent(event(EventType.EXT_WRITE_ROWS, write));
+        write = new WriteRowsEventData();
+        write.setTableId(72);
+        client.onEvent(event(EventType.EXT_WRITE_ROWS, write));
+        assertEquals(1, requests);
+
+        write = new WriteRowsEventData();
+        write.setTableId(70);
+        client.onEvent(event(EventType.EXT_WRITE_ROWS, write));
+        DeleteRowsEventData delete = new DeleteRowsEventData();
+        delete.setTableId(70);
+        client.onEvent(event(EventType.EXT_DELETE_ROWS, delete));
+        assertEquals(3, requests);
+    }
+
+    /*
+     * Rows of a table which was never mapped, such as the ticket table
+     * before the log shows its table map, do not ask for a poll.
+     */
+    @Test
+    public void unmappedRowsAreIgnored() {
+        UpdateRowsEventData update = new UpdateRowsEventData();
+        update.setTableId(70);
+        client.onEvent(event(EventType.EXT_UPDATE_ROWS, update));
+        client.onEvent(event(EventType.QUERY, null));
+        assertEquals(0, requests);
+    }
+
+    /*
+     * Losing the feed asks for one poll, as the scheduled poll may be far
+     * away, and the feed shows as not connected until it is back.
+     */
+    @Test
+    public void lostFeedRequestsPoll() {
+        client.onConnect(null);
+        assertTrue(feed.isConnected());
+        client.onCommunicationFailure(null, new EOFException());
+        assertFalse(feed.isConnected());
+        client.onDisconnect(null);
+        assertEquals(1, requests);
+
+        client.onConnect(null);
+        assertTrue(feed.isConnected());
+        client.onDisconnect(null);
+        assertEquals(2, requests);
+    }
+
+    private static Event tableMap(long tableID, String database, String table) {
+        TableMapEventData map = new TableMapEventData();
+        map.setTableId(tableID);
+        map.setDatabase(database);
+        map.setTable(table);
+        return event(EventType.TABLE_MAP, map);
+    }
+
+    private static Event event(EventType type, EventData data) {
+        EventHeaderV4 header = new EventHeaderV4();
+        header.setEventType(type);
+        return new Event(header, data);
+    }
+}
@@ -0,0 +1,200 @@
+package queuemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Checks the store the IncrementalPoller keeps up to date in place against
+ * re-reading the whole queue, which is what the poller used to do.
+ *
+ * @author bshteinfeld
+ */
+public class IncrementalPollerTest {
+
+    private static final long RECONCILE_MILLIS = 300000;
+
+    /*
+     * A table of tickets which answers the queries of the poller the way
+     * KACE does.
+     */
+    private static class TableSource implements TicketSource {
+        private final LinkedHashMap<Integer, Ticket> rows = new LinkedHashMap<Integer, Ticket>();
+        // Run just before the open tickets are read, if set
+        private Runnable beforeOpenRead;
+
+        void put(Ticket t) {
+            rows.put(t.getID(), t);
+        }
+
+        @Override
+        public List<Ticket> fetchOpenTickets() {
+            if (beforeOpenRead != null) {
+                beforeOpenRead.run();
+            }
+            ArrayList<Ticket> open = new ArrayList<Ticket>();
+            for (Ticket t : rows.values()) {
+                if (t.isOpen()) {
+                    open.add(t);
+                }
+            }
+            return open;
+        }
+
+        @Override
+        public List<Ticket> fetchChangedTickets(Timestamp modifiedSince, int afterID) {
+            ArrayList<Ticket> changed = new ArrayList<Ticket>();
+            for (Ticket t : rows.values()) {
+                if (!t.getModified().before(modifiedSince) || t.getID() > afterID) {
+                    changed.add(t);
+                }
+            }
+            return changed;
+        }
+
+        @Override
+        public List<Ticket> fetchClosedTickets(int days) {
+            return Collections.emptyList();
+        }
+    }
+
+    /*
+     * After every poll each open ticket is compared with the store field by
+     * field, and the panels and counts classified from the store with those
+     * of a store filled from a full re-read.
+     */
+    @Test
+    public void storeMatchesFullReread() {
+        TicketRules rules = TicketRules.defaults();
+        SyntheticPolls polls = new SyntheticPolls(SyntheticPolls.QUEUES, 3000, 50, 7, rules);
+        TicketClassifier classifier = new TicketClassifier(rules);
+        for (int i = 0; i < 300; i++) {
+            polls.poll();
+            List<Ticket> open = polls.source.fetchOpenTickets();
+            assertStoreHolds("poll " + i, polls.store(), open);
+
+            TicketStore reread = new TicketStore(rules);
+            for (Ticket t : open) {
+                reread.put(t);
+            }
+            Date now = polls.now();
+            for (int queueID : SyntheticPolls.QUEUES) {
+                assertSameSnapshot("poll " + i + " queue " + queueID,
+                        classifier.classify(queueID, reread, -1, -1, now),
+                        classifier.classify(queueID, polls.store(), -1, -1, now));
+            }
+        }
+    }
+
+    static void assertStoreHolds(String message, TicketStore store, List<Ticket> open) {
+        assertEquals(message + ": tickets held", open.size(), store.size());
+        for (Ticket t : open) {
+            int slot = store.slotOf(t.getID());
+            assertTrue(message + ": ticket " + t.getID() + " is missing", slot >= 0);
+            Ticket s = store.ticket(slot);
+            String ticket = message + ": ticket " + t.getID();
+            assertEquals(ticket + " queue", t.getQueueID(), s.getQueueID());
+            assertEquals(ticket + " owner", t.getOwnerID(), s.getOwnerID());
+            assertEquals(ticket + " category", t.getCategoryID(), s.getCategoryID());
+            assertEquals(ticket + " status", t.getStatusID(), s.getStatusID());
+            assertEquals(ticket + " created", t.getCreatedSeconds(), s.getCreatedSeconds());
+            assertEquals(ticket + " title", t.getTitle(), s.getTitle());
+            assertEquals(ticket + " state", t.getState(), s.getState());
+            assertEquals(ticket + " modified", t.getModified(), s.getModified());
+        }
+    }
+
+    private static void assertSameSnapshot(String message, QueueSnapshot expected,
+            QueueSnapshot actual) {
+        assertEquals(message + ": open", expected.getNumOpen(), actual.getNumOpen());
+        assertEquals(message + ": unassigned", expected.getNumUnassigned(),
+                actual.getNumUnassigned());
+        assertEquals(message + ": panels", expected.getPanelNames(), actual.getPanelNames());
+        for (int p = 0; p < expected.getPanels().size(); p++) {
+            assertEquals(message + ": panel " + expected.getPanelNames().get(p),
+                    SyntheticPolls.ids(expected.getPanels().get(p)),
+                    SyntheticPolls.ids(actual.getPanels().get(p)));
+        }
+    }
+
+    /*
+     * A ticket which closes after the last incremental poll, and before a
+     * poll which re-reads the queue, is returned as closed by that poll.
+     */
+    @Test
+    public void ticketClosedBeforeReconcileIsReported() {
+        TestClock clock = new TestClock(Instant.parse("2026-03-02T10:00:00Z"), ZoneId.of("UTC"));
+        TableSource source = new TableSource();
+        source.put(ticket(1, "opened", clock));
+        source.put(ticket(2, "opened", clock));
+        IncrementalPoller poller = new IncrementalPoller(source, TicketRules.defaults(), clock,
+                RECONCILE_MILLIS, 5000);
+        assertTrue(poller.poll());
+        clock.advance(RECONCILE_MILLIS - 60000);
+        assertTrue(poller.poll());
+        assertTrue(poller.getClosedTickets().isEmpty());
+
+        clock.advance(30000);
+        source.put(ticket(2, "closed", clock));
+        clock.advance(30000);
+        assertTrue(poller.poll());
+        assertEquals(Arrays.asList(2), SyntheticPolls.ids(poller.getClosedTickets()));
+        assertTrue(poller.ticketRemoved());
+        assertEquals(-1, poller.getStore().slotOf(2));
+        assertEquals(1, poller.getStore().size());
+    }
+
+    /*
+     * A ticket which closes while the queue is re-read is dropped by the
+     * re-read, and returned as closed by the next poll, even when a ticket
+     * which is still open changed after it, beyond the look-back.
+     */
+    @Test
+    public void ticketClosedDuringReconcileIsReportedNext() {
+        final TestClock clock = new TestClock(Instant.parse("2026-03-02T10:00:00Z"),
+                ZoneId.of("UTC"));
+        final TableSource source = new TableSource();
+        source.put(ticket(1, "opened", clock));
+        source.put(ticket(2, "opened", clock));
+        IncrementalPoller poller = new IncrementalPoller(source, TicketRules.defaults(), clock,
+                RECONCILE_MILLIS, 5000);
+        assertTrue(poller.poll());
+
+        clock.advance(RECONCILE_MILLIS);
+        source.beforeOpenRead = new Runnable() {
+            @Override
+            public void run() {
+                clock.advance(100);
+                source.put(ticket(2, "closed", clock));
+                clock.advance(10000);
+                source.put(ticket(1, "opened", clock));
+            }
+        };
+        assertTrue(poller.poll());
+        assertTrue(poller.getClosedTickets().isEmpty());
+        assertEquals(-1, poller.getStore().slotOf(2));
+
+        source.beforeOpenRead = null;
+        clock.advance(10000);
+        assertTrue(poller.poll());
+        assertEquals(Arrays.asList(2), SyntheticPolls.ids(poller.getClosedTickets()));
+        assertFalse(poller.ticketRemoved());
+    }
+
+    private static Ticket ticket(int id, String state, TestClock clock) {
+        Timestamp now = new Timestamp(clock.millis());
+        return new Ticket(id, 1, "Password reset", new Timestamp(clock.millis() - 3600000), 0,
+                1, "closed".equals(state) ? 6 : 2, state, now, "closed".equals(state) ? 3600 : -1);
+    }
+}
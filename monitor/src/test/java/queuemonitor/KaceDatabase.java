@@ -0,0 +1,141 @@
+package queuemonitor;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * An in-memory H2 database holding the KACE tables the monitor reads,
+ * HD_TICKET and HD_STATUS, kept in step with a SyntheticTicketSource. H2
+ * runs in MySQL mode, so the queries of JdbcTicketSource run as they are.
+ * H2 has no zero date, so TIME_OPENED and TIME_CLOSED hold the text MySQL
+ * shows for them, '0000-00-00 00:00:00' where unset.
+ *
+ * @author bshteinfeld
+ */
+class KaceDatabase {
+
+    static final String DRIVER = "org.h2.Driver";
+    static final String USER = "R1";
+    static final String PASSWORD = "box747";
+    private static final String ZERO_DATE = "0000-00-00 00:00:00";
+    private static final DateTimeFormatter DATE_TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // KACE statuses of the synthetic tickets: ID, name and state
+    private static final Object[][] STATUSES = {{2, "Open", "opened"},
+        {3, "Stalled", "stalled"}, {4, "New", "opened"}, {5, "Reopened", "opened"},
+        {6, "Closed", "closed"}};
+
+    // URL the monitor connects to
+    final String url;
+    // Connection the tables are written over, which keeps the database open
+    private final Connection connection;
+    private final PreparedStatement merge;
+    private final SyntheticTicketSource source;
+    private final Clock clock;
+    // Time of the last copy, and highest ticket ID copied
+    private Timestamp lastSync;
+    private int maxID;
+
+    /**
+     * Create the database of the given name and copy every ticket of the
+     * source into it, the closed tickets of the last 90 days included.
+     */
+    KaceDatabase(String name, SyntheticTicketSource source, Clock clock) throws SQLException {
+        this.source = source;
+        this.clock = clock;
+        url = "jdbc:h2:mem:" + name + ";MODE=MySQL";
+        connection = DriverManager.getConnection(url, USER, PASSWORD);
+        Statement statm = connection.createStatement();
+        statm.execute("create table HD_STATUS (ID int primary key, NAME varchar(255), "
+                + "STATE varchar(16))");
+        statm.execute("create table HD_TICKET (ID int primary key, HD_QUEUE_ID int, "
+                + "TITLE varchar(255), CREATED timestamp, OWNER_ID int, HD_CATEGORY_ID int, "
+                + "HD_STATUS_ID int, MODIFIED timestamp, TIME_OPENED varchar(19), "
+                + "TIME_CLOSED varchar(19))");
+        statm.execute("create index HD_TICKET_MODIFIED on HD_TICKET (MODIFIED)");
+        statm.close();
+
+        PreparedStatement status = connection.prepareStatement(
+                "insert into HD_STATUS values (?, ?, ?)");
+        for (Object[] s : STATUSES) {
+            for (int i = 0; i < s.length; i++) {
+                status.setObject(i + 1, s[i]);
+            }
+            status.executeUpdate();
+        }
+        status.close();
+
+        merge = connection.prepareStatement("merge into HD_TICKET key (ID) "
+                + "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        lastSync = new Timestamp(clock.millis());
+        write(source.fetchClosedTickets(90));
+        write(source.fetchOpenTickets());
+    }
+
+    /**
+     * Let the source change its tickets, as it does once per poll, and copy
+     * the changes into the tables.
+     */
+    void sync() throws SQLException {
+        Timestamp now = new Timestamp(clock.millis());
+        write(source.fetchChangedTickets(lastSync, maxID));
+        lastSync = now;
+    }
+
+    /**
+     * Return the number of connections open to the database, apart from
+     * the one of the tables.
+     */
+    int openConnections() throws SQLException {
+        Statement statm = connection.createStatement();
+        try {
+            ResultSet rs = statm.executeQuery(
+                    "select count(*) from INFORMATION_SCHEMA.SESSIONS");
+            rs.next();
+            return rs.getInt(1) - 1;
+        } finally {
+            statm.close();
+        }
+    }
+
+    /**
+     * Drop the database.
+     */
+    void close() throws SQLException {
+        merge.close();
+        connection.close();
+    }
+
+    private void write(List<Ticket> tickets) throws SQLException {
+        for (Ticket t : tickets) {
+            long created = t.getCreatedSeconds();
+            merge.setInt(1, t.getID());
+            merge.setInt(2, t.getQueueID());
+            merge.setString(3, t.getTitle());
+            merge.setTimestamp(4, new Timestamp(created * 1000));
+            merge.setInt(5, t.getOwnerID());
+            merge.setInt(6, t.getCategoryID());
+            merge.setInt(7, t.getStatusID());
+            merge.setTimestamp(8, t.getModified());
+            merge.setString(9, format(created));
+            merge.setString(10, t.isOpen() ? ZERO_DATE : format(created + t.getCloseDuration()));
+            merge.addBatch();
+            maxID = Math.max(maxID, t.getID());
+        }
+        merge.executeBatch();
+    }
+
+    private static String format(long seconds) {
+        return DATE_TIME.format(Instant.ofEpochSecond(seconds).atZone(ZoneId.systemDefault()));
+    }
+}
@@ -0,0 +1,286 @@
+package queuemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Properties;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Soak test of the whole poll loop of the Queue Monitor. A headless
+ * QMController polls a KaceDatabase, seeded and changed by a
+ * SyntheticTicketSource, on a clock which runs faster than real time, so
+ * days of polling take minutes. Every so often the heap in use after a full
+ * GC, the open JDBC connections, the GC pauses and the percentiles of the
+ * poll latency are printed.
+ * The test fails if a connection is left open once polling stops, if a
+ * query fails, if the heap keeps growing, or if the polls get slower over
+ * time. H2 does not show the statements and result sets left open, only
+ * the connections, which close them.
+ * By default a short run is part of the tests. The long run is started
+ * with mvn -Psoak test, and set with the system properties soak.days,
+ * soak.speed, soak.churn (tickets created, changed or closed per poll),
+ * soak.samples and soak.sizes (queue sizes, separated by commas).
+ * The monitor keeps the closing times of 90 days and the tables keep every
+ * ticket, so with a high churn the heap grows for as long as the test runs
+ * without anything leaking.
+ *
+ * @author bshteinfeld
+ */
+public class QMSoakTest {
+
+    // Queue sizes of the long run, and of the short run
+    private static final String LONG_SIZES = "1000,20000";
+    private static final String SHORT_SIZES = "1000";
+    private static final double SHORT_DAYS = 0.1;
+    private static final long DAY_MILLIS = 24L * 3600 * 1000;
+    // Time between polls at real speed (ms)
+    private static final long POLL_INTERVAL = 5000;
+    // The heap may grow by this much between the first and the second half
+    // of the run, or by 10% if that is more
+    private static final long HEAP_SLACK = 16L * 1024 * 1024;
+    // The polls of the second half may be this many times slower than those
+    // of the first, plus DRIFT_SLACK microseconds
+    private static final int DRIFT_FACTOR = 3;
+    private static final long DRIFT_SLACK = 5000;
+
+    // GC pauses of the whole run, in microseconds
+    private static final LatencyHistogram gcPauses = new LatencyHistogram();
+    private static NotificationListener gcListener;
+
+    /*
+     * A clock which starts now and runs 'speed' times faster than real time.
+     */
+    private static class SoakClock extends Clock {
+        private final long base;
+        private final long start;
+        private final double speed;
+        private final ZoneId zone;
+
+        SoakClock(double speed, ZoneId zone) {
+            this(System.currentTimeMillis(), System.nanoTime(), speed, zone);
+        }
+
+        private SoakClock(long base, long start, double speed, ZoneId zone) {
+            this.base = base;
+            this.start = start;
+            this.speed = speed;
+            this.zone = zone;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return zone;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return new SoakClock(base, start, speed, zone);
+        }
+
+        @Override
+        public long millis() {
+            return base + (long) ((System.nanoTime() - start) / 1000000.0 * speed);
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis());
+        }
+    }
+
+    @Test
+    public void pollLoopDoesNotLeakOrDrift() throws Exception {
+        String days = System.getProperty("soak.days");
+        String sizes = System.getProperty("soak.sizes", days == null ? SHORT_SIZES : LONG_SIZES);
+        double speed = Double.parseDouble(System.getProperty("soak.speed", "1000"));
+        // About the rate of a busy help desk, at one poll every 5 seconds
+        int churn = Integer.getInteger("soak.churn", 1);
+        int samples = Math.max(4, Integer.getInteger("soak.samples", days == null ? 4 : 12));
+        for (String size : sizes.split(",")) {
+            soak(Integer.parseInt(size.trim()), churn,
+                    days == null ? SHORT_DAYS : Double.parseDouble(days), speed, samples);
+        }
+    }
+
+    /*
+     * Poll a queue of the given size for the given number of simulated days.
+     */
+    private static void soak(int size, int churn, double days, double speed, int samples)
+            throws Exception {
+        File dir = Files.createTempDirectory("qmsoak").toFile();
+        SoakClock clock = new SoakClock(speed, ZoneId.systemDefault());
+        SyntheticTicketSource source = new SyntheticTicketSource(size, churn, 42, clock);
+        KaceDatabase db = new KaceDatabase("soak" + size, source, clock);
+        try {
+            long interval = Math.max(1, Math.round(POLL_INTERVAL / speed));
+            Properties props = new Properties();
+            props.setProperty("headless", "true");
+            props.setProperty("queues", "1");
+            props.setProperty("db.driver", KaceDatabase.DRIVER);
+            props.setProperty("db.url", db.url);
+            props.setProperty("db.user", KaceDatabase.USER);
+            props.setProperty("db.password", KaceDatabase.PASSWORD);
+            props.setProperty("history.dir", new File(dir, "history").getPath());
+            props.setProperty("cache.dir", new File(dir, "cache").getPath());
+            for (String key : new String[] {"poll.interval.min", "poll.interval",
+                "poll.interval.max", "poll.offhours.interval", "poll.offhours.interval.max"}) {
+                props.setProperty(key, String.valueOf(interval));
+            }
+            // Slow polls must not stretch the interval, that would hide drift
+            props.setProperty("poll.slow.millis", "60000");
+
+            System.out.printf("%n%d tickets, %d changed per poll, %.1f days at %.0fx, "
+                    + "polling every %d ms%n", size, churn, days, speed, interval);
+            System.out.printf("%8s %7s %9s %9s %9s %9s %5s %8s %6s%n", "hours", "polls",
+                    "heap MB", "p50 ms", "p99 ms", "max ms", "GCs", "GC max", "conns");
+
+            QMMetrics metrics = QMMetrics.getInstance();
+            LatencyHistogram polls = metrics.getPoll().copy();
+            LatencyHistogram pauses = gcPauses.copy();
+            long pollCount = metrics.getPolls();
+            long queryErrors = metrics.getQueryErrors();
+            long rowsRead = metrics.getRowsRead();
+            long simulatedStart = clock.millis();
+            long window = (long) (days * DAY_MILLIS / speed / samples);
+            long[] heap = new long[samples];
+            long[] p99 = new long[samples];
+
+            QMController controller = new QMController(new QMConfig(props), clock);
+            try {
+                for (int i = 0; i < samples; i++) {
+                    // The tickets change once per poll interval
+                    long end = System.nanoTime() + window * 1000000;
+                    while (System.nanoTime() < end) {
+                        db.sync();
+                        Thread.sleep(interval);
+                    }
+                    LatencyHistogram pollWindow = metrics.getPoll().difference(polls);
+                    polls = metrics.getPoll().copy();
+                    long count = metrics.getPolls() - pollCount;
+                    pollCount += count;
+                    System.gc();
+                    heap[i] = usedHeap();
+                    LatencyHistogram pauseWindow = gcPauses.difference(pauses);
+                    pauses = gcPauses.copy();
+                    p99[i] = pollWindow.percentile(99);
+                    System.out.printf("%8.1f %7d %9.1f %9.2f %9.2f %9.2f %5d %8.2f %6d%n",
+                            (clock.millis() - simulatedStart) / 3600000.0, count,
+                            heap[i] / 1048576.0, pollWindow.percentile(50) / 1000.0,
+                            p99[i] / 1000.0, pollWindow.getMax() / 1000.0,
+                            pauseWindow.getCount(), pauseWindow.getMax() / 1000.0,
+                            db.openConnections());
+                    assertTrue("no poll finished in sample " + i, count > 0);
+                }
+            } finally {
+                controller.closeConnection();
+            }
+
+            assertEquals("connections left open", 0, db.openConnections());
+            assertEquals("queries failed", queryErrors, metrics.getQueryErrors());
+            assertTrue("no tickets were read", metrics.getRowsRead() > rowsRead);
+            // The first sample is skipped, the JIT and the caches are warming
+            // up. The lowest heap of each half is compared, since the heap in
+            // use goes up and down with the churn even when nothing leaks.
+            int half = (samples + 1) / 2;
+            long firstHeap = min(heap, 1, half);
+            long lastHeap = min(heap, half, samples);
+            assertTrue(String.format("heap grew from %.1f MB to %.1f MB",
+                    firstHeap / 1048576.0, lastHeap / 1048576.0),
+                    lastHeap - firstHeap <= Math.max(HEAP_SLACK, firstHeap / 10));
+            // The polls drift if even the best window of the second half is
+            // much slower than the worst of the first
+            long firstP99 = max(p99, 1, half);
+            long lastP99 = min(p99, half, samples);
+            assertTrue(String.format("poll p99 drifted from %.2f ms to %.2f ms",
+                    firstP99 / 1000.0, lastP99 / 1000.0),
+                    lastP99 <= DRIFT_FACTOR * firstP99 + DRIFT_SLACK);
+        } finally {
+            db.close();
+            delete(dir);
+        }
+    }
+
+    /*
+     * Record the pauses of every collection, apart from the System.gc()
+     * the test makes itself, into gcPauses.
+     */
+    @BeforeClass
+    public static void recordGcPauses() {
+        gcListener = new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification, Object handback) {
+                if (!notification.getType().equals(
+                        GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                        .from((CompositeData) notification.getUserData());
+                if (!info.getGcCause().equals("System.gc()")) {
+                    gcPauses.record(info.getGcInfo().getDuration() * 1000);
+                }
+            }
+        };
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(gcListener, null, null);
+            }
+        }
+    }
+
+    @AfterClass
+    public static void stopRecordingGcPauses() throws ListenerNotFoundException {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).removeNotificationListener(gcListener);
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long min(long[] values, int from, int to) {
+        long min = Long.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            min = Math.min(min, values[i]);
+        }
+        return min;
+    }
+
+    private static long max(long[] values, int from, int to) {
+        long max = 0;
+        for (int i = from; i < to; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            System.err.println("Unable to delete " + file);
+        }
+    }
+}
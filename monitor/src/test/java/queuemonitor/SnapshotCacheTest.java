@@ -0,0 +1,68 @@
+package queuemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the SnapshotCache reads back what it wrote, and only writes a
+ * snapshot when more than its time changed.
+ *
+ * @author bshteinfeld
+ */
+public class SnapshotCacheTest {
+
+    private static final long TAKEN = 1772400000000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void snapshotIsReadBack() {
+        SnapshotCache cache = new SnapshotCache(folder.getRoot());
+        cache.snapshotPublished(snapshot(TAKEN, 12));
+        QueueSnapshot read = cache.load(1);
+        assertEquals(TAKEN, read.getTimeTaken().getTime());
+        assertEquals(12, read.getNumOpen());
+        assertEquals(3, read.getNumUnassigned());
+        assertEquals(Arrays.asList("arrivals", "delays"), read.getPanelNames());
+        assertEquals(Arrays.asList(7), SyntheticPolls.ids(read.getPanel("delays")));
+        assertEquals("Age: 1", read.getBreakdown());
+        assertNull(cache.load(2));
+    }
+
+    /*
+     * A snapshot which only differs in its time is not written, the file
+     * keeps the time of the first snapshot with those contents.
+     */
+    @Test
+    public void unchangedSnapshotIsNotWritten() {
+        SnapshotCache cache = new SnapshotCache(folder.getRoot());
+        cache.snapshotPublished(snapshot(TAKEN, 12));
+        cache.snapshotPublished(snapshot(TAKEN + 5000, 12));
+        assertEquals(TAKEN, cache.load(1).getTimeTaken().getTime());
+
+        cache.snapshotPublished(snapshot(TAKEN + 10000, 13));
+        QueueSnapshot read = cache.load(1);
+        assertEquals(TAKEN + 10000, read.getTimeTaken().getTime());
+        assertEquals(13, read.getNumOpen());
+    }
+
+    private static QueueSnapshot snapshot(long taken, int numOpen) {
+        Ticket delayed = new Ticket(7, 1, "Printer not working",
+                new Timestamp(TAKEN - 2 * 86400000L), 0, 1, 2, "opened",
+                new Timestamp(TAKEN - 3600000), -1);
+        List<List<Ticket>> panels = Arrays.asList(Collections.<Ticket>emptyList(),
+                Collections.singletonList(delayed));
+        return new QueueSnapshot(1, new Date(taken), Arrays.asList("arrivals", "delays"),
+                panels, 3, numOpen, 3600, 7200, "Age: 1");
+    }
+}
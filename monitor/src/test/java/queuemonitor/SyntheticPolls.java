@@ -0,0 +1,70 @@
+package queuemonitor;
+
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Polls a SyntheticTicketSource the way the monitor does, on a TestClock
+ * which moves on by the poll interval before every poll. The clock starts
+ * ten minutes before midnight, so a run of more than 120 polls crosses
+ * into the next day.
+ *
+ * @author bshteinfeld
+ */
+class SyntheticPolls {
+
+    // Time between polls (ms)
+    static final long POLL_INTERVAL = 5000;
+    // Queues the tickets of the tests are spread over
+    static final int[] QUEUES = {1, 2};
+
+    final TestClock clock;
+    final SyntheticTicketSource source;
+    final IncrementalPoller poller;
+
+    SyntheticPolls(int[] queues, int size, int churn, long seed, TicketRules rules) {
+        ZoneId zone = ZoneId.systemDefault();
+        clock = new TestClock(LocalDate.of(2026, 3, 2).atStartOfDay(zone)
+                .minusMinutes(10).toInstant(), zone);
+        source = new SyntheticTicketSource(queues, size, churn, seed, clock);
+        poller = new IncrementalPoller(source, rules, clock,
+                IncrementalPoller.DEFAULT_RECONCILE_MILLIS,
+                IncrementalPoller.DEFAULT_LOOK_BACK_MILLIS);
+    }
+
+    /**
+     * Move the clock on by the poll interval and poll.
+     */
+    void poll() {
+        clock.advance(POLL_INTERVAL);
+        assertTrue("poll failed", poller.poll());
+    }
+
+    TicketStore store() {
+        return poller.getStore();
+    }
+
+    Date now() {
+        return new Date(clock.millis());
+    }
+
+    /**
+     * Return the days since the epoch it is now.
+     */
+    int today() {
+        return (int) LocalDate.now(clock).toEpochDay();
+    }
+
+    static List<Integer> ids(List<Ticket> tickets) {
+        ArrayList<Integer> ids = new ArrayList<Integer>(tickets.size());
+        for (Ticket t : tickets) {
+            ids.add(t.getID());
+        }
+        return ids;
+    }
+}
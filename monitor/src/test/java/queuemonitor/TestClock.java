@@ -0,0 +1,48 @@
+package queuemonitor;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * A clock which only moves when a test moves it.
+ *
+ * @author bshteinfeld
+ */
+class TestClock extends Clock {
+
+    private final ZoneId zone;
+    private long millis;
+
+    TestClock(Instant start, ZoneId zone) {
+        this.zone = zone;
+        millis = start.toEpochMilli();
+    }
+
+    void advance(long ms) {
+        millis += ms;
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * Return a copy in another zone, which does not move with this one.
+     */
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return new TestClock(instant(), zone);
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis);
+    }
+}
@@ -0,0 +1,140 @@
+package queuemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Checks the counts the TicketCube keeps up to date against counting the
+ * open tickets one by one.
+ *
+ * @author bshteinfeld
+ */
+public class TicketCubeTest {
+
+    // First day of each age bucket, as in the cube
+    private static final int[] AGE_BUCKET_DAYS = {0, 1, 2, 7, 30};
+    private static final int ANY = TicketCube.ANY;
+
+    /*
+     * After every poll every roll-up of every queue which holds a ticket,
+     * and the values of every dimension, are compared with brute-force
+     * counts, as are the average ages. The polls run past midnight, where
+     * the cube is rebuilt with the ages of the new day.
+     */
+    @Test
+    public void countsMatchBruteForce() {
+        SyntheticPolls polls = new SyntheticPolls(SyntheticPolls.QUEUES, 3000, 50, 13,
+                TicketRules.defaults());
+        int firstDay = polls.today();
+        for (int i = 0; i < 200; i++) {
+            polls.poll();
+            int today = polls.today();
+            TicketCube cube = polls.store().cube(today);
+            long now = polls.clock.millis() / 1000;
+            Map<List<Integer>, long[]> expected =
+                    bruteForce(polls.source.fetchOpenTickets(), today);
+            assertCounts("poll " + i, cube, expected, now);
+        }
+        assertNotEquals("the polls did not cross midnight", firstDay, polls.today());
+    }
+
+    /*
+     * Count the open and stalled tickets into every roll-up, keyed by
+     * queue, owner, category, status and age bucket, ANY where rolled up.
+     * Each value is {count, tickets with a created time, sum of those
+     * created times}.
+     */
+    private static Map<List<Integer>, long[]> bruteForce(List<Ticket> tickets, int today) {
+        HashMap<List<Integer>, long[]> counts = new HashMap<List<Integer>, long[]>();
+        for (Ticket t : tickets) {
+            if (!t.isOpen()) {
+                continue;
+            }
+            int[] values = {t.getOwnerID(), t.getCategoryID(), t.getStatusID(),
+                ageBucket(t, today)};
+            for (int mask = 0; mask < 16; mask++) {
+                List<Integer> key = Arrays.asList(t.getQueueID(),
+                        (mask & 1) != 0 ? ANY : values[0], (mask & 2) != 0 ? ANY : values[1],
+                        (mask & 4) != 0 ? ANY : values[2], (mask & 8) != 0 ? ANY : values[3]);
+                long[] count = counts.get(key);
+                if (count == null) {
+                    count = new long[3];
+                    counts.put(key, count);
+                }
+                count[0]++;
+                if (t.getTimeCreated() != null) {
+                    count[1]++;
+                    count[2] += t.getCreatedSeconds();
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static int ageBucket(Ticket t, int today) {
+        if (t.getTimeCreated() == null) {
+            return TicketCube.NO_AGE;
+        }
+        long days = today - Instant.ofEpochSecond(t.getCreatedSeconds())
+                .atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+        int bucket = 0;
+        for (int b = 1; b < AGE_BUCKET_DAYS.length; b++) {
+            if (days >= AGE_BUCKET_DAYS[b]) {
+                bucket = b;
+            }
+        }
+        return bucket;
+    }
+
+    private static void assertCounts(String message, TicketCube cube,
+            Map<List<Integer>, long[]> expected, long now) {
+        for (Map.Entry<List<Integer>, long[]> e : expected.entrySet()) {
+            List<Integer> k = e.getKey();
+            long[] count = e.getValue();
+            assertEquals(message + ": count of " + k, count[0],
+                    cube.count(k.get(0), k.get(1), k.get(2), k.get(3), k.get(4)));
+            assertEquals(message + ": average age of " + k,
+                    count[1] == 0 ? -1 : Math.max(0, now - count[2] / count[1]),
+                    cube.averageAge(k.get(0), k.get(1), k.get(2), k.get(3), k.get(4), now));
+        }
+        // Every value of each dimension, and no value without tickets
+        for (int queueID : SyntheticPolls.QUEUES) {
+            for (int dimension = 0; dimension < 4; dimension++) {
+                HashSet<List<Integer>> want = new HashSet<List<Integer>>();
+                for (Map.Entry<List<Integer>, long[]> e : expected.entrySet()) {
+                    List<Integer> k = e.getKey();
+                    if (k.get(0) == queueID && isSliceOf(k, dimension)) {
+                        want.add(Arrays.asList(k.get(1 + dimension), (int) e.getValue()[0]));
+                    }
+                }
+                HashSet<List<Integer>> got = new HashSet<List<Integer>>();
+                for (int[] value : cube.breakdown(queueID, dimension, Integer.MAX_VALUE)) {
+                    got.add(Arrays.asList(value[0], value[1]));
+                }
+                assertEquals(message + ": values of dimension " + dimension + " of queue "
+                        + queueID, want, got);
+            }
+        }
+    }
+
+    /*
+     * Return true if a key rolls up every dimension but the given one.
+     */
+    private static boolean isSliceOf(List<Integer> key, int dimension) {
+        for (int d = 0; d < 4; d++) {
+            if ((key.get(1 + d) == ANY) == (d == dimension)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
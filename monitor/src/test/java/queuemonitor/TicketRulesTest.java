@@ -0,0 +1,145 @@
+package queuemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import org.junit.Test;
+
+/**
+ * Checks that the default panel rules give the same panels as the rules
+ * which used to be written into the classifier.
+ *
+ * @author bshteinfeld
+ */
+public class TicketRulesTest {
+
+    // Rules of the old classifier
+    private static final int NEW_STATUS_ID = 4;
+    private static final int[] EXCLUDED_DELAY_CATEGORIES = {43, 42, 53};
+    private static final long SLA_SECONDS = 24 * 3600;
+
+    private static final Comparator<Ticket> BY_ID = new Comparator<Ticket>() {
+        @Override
+        public int compare(Ticket t1, Ticket t2) {
+            return Integer.compare(t1.getID(), t2.getID());
+        }
+    };
+    private static final Comparator<Ticket> OLDEST_FIRST = new Comparator<Ticket>() {
+        @Override
+        public int compare(Ticket t1, Ticket t2) {
+            int c = Long.compare(t1.getCreatedSeconds(), t2.getCreatedSeconds());
+            return c != 0 ? c : Integer.compare(t1.getID(), t2.getID());
+        }
+    };
+
+    /*
+     * The delays of the default rules have an SLA of 24 hours, and are
+     * checked against the old rules with that SLA in place of the day
+     * cut-off. An extra panel set up with olderThanDays=1 is checked against
+     * the old delays exactly. The polls run past midnight.
+     */
+    @Test
+    public void defaultsMatchOldRules() {
+        Properties props = new Properties();
+        props.setProperty("panels", "arrivals,delays,departures,overdue");
+        props.setProperty("panel.overdue.notTitle", "[NEW STARTER]|[TERMINATION]|New Term Notice");
+        props.setProperty("panel.overdue.owner", "unassigned");
+        props.setProperty("panel.overdue.notCategory", "43,42,53");
+        props.setProperty("panel.overdue.olderThanDays", "1");
+        TicketRules rules = new TicketRules(new QMConfig(props));
+
+        SyntheticPolls polls = new SyntheticPolls(new int[] {1}, 5000, 50, 11, rules);
+        TicketClassifier classifier = new TicketClassifier(rules);
+        int[] shown = new int[rules.getPanels().size()];
+        for (int i = 0; i < 150; i++) {
+            polls.poll();
+            Date now = polls.now();
+            QueueSnapshot snapshot = classifier.classify(1, polls.store(), -1, -1, now);
+            List<List<Ticket>> expected = oldRules(polls.source.fetchOpenTickets(), now);
+            for (int p = 0; p < expected.size(); p++) {
+                List<Integer> ids = SyntheticPolls.ids(snapshot.getPanels().get(p));
+                assertEquals("poll " + i + " panel " + snapshot.getPanelNames().get(p),
+                        SyntheticPolls.ids(expected.get(p)), ids);
+                shown[p] += ids.size();
+            }
+        }
+        for (int p = 0; p < shown.length; p++) {
+            assertTrue(rules.getPanelNames().get(p) + " never showed a ticket", shown[p] > 0);
+        }
+    }
+
+    /*
+     * Sort the open tickets into arrivals, delays (with the SLA), departures
+     * and delays (as they used to be), the way the classifier used to.
+     */
+    private static List<List<Ticket>> oldRules(List<Ticket> openTickets, Date now) {
+        ArrayList<Ticket> arrivals = new ArrayList<Ticket>();
+        ArrayList<Ticket> delays = new ArrayList<Ticket>();
+        ArrayList<Ticket> departures = new ArrayList<Ticket>();
+        ArrayList<Ticket> overdue = new ArrayList<Ticket>();
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate today = now.toInstant().atZone(zone).toLocalDate();
+        long delayCutoff = today.minusDays(1).atStartOfDay(zone).toEpochSecond();
+        long nowSeconds = now.getTime() / 1000;
+
+        for (Ticket t : openTickets) {
+            if (!"opened".equalsIgnoreCase(t.getState())) {
+                continue;
+            }
+            String title = t.getTitle() == null ? "" : t.getTitle();
+            boolean starter = startsWith(title, "[NEW STARTER]");
+            boolean termination = startsWith(title, "[TERMINATION]")
+                    || startsWith(title, "New Term Notice");
+            boolean isNew = t.getStatusID() == NEW_STATUS_ID;
+
+            if (starter && isNew) {
+                arrivals.add(t);
+            } else if (termination && isNew) {
+                if (today.equals(t.extractDateFromTitle())) {
+                    departures.add(t);
+                }
+            } else if (!starter && !termination && t.getOwnerID() == 0
+                    && !isExcludedFromDelays(t.getCategoryID())
+                    && t.getTimeCreated() != null) {
+                if (t.getCreatedSeconds() < delayCutoff) {
+                    overdue.add(t);
+                }
+                if (t.getCreatedSeconds() + SLA_SECONDS <= nowSeconds) {
+                    delays.add(t);
+                }
+            }
+        }
+
+        Collections.sort(arrivals, BY_ID);
+        Collections.sort(delays, OLDEST_FIRST);
+        Collections.sort(departures, OLDEST_FIRST);
+        Collections.sort(overdue, OLDEST_FIRST);
+        List<List<Ticket>> panels = new ArrayList<List<Ticket>>();
+        panels.add(arrivals);
+        panels.add(delays);
+        panels.add(departures);
+        panels.add(overdue);
+        return panels;
+    }
+
+    private static boolean startsWith(String title, String prefix) {
+        return title.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+    private static boolean isExcludedFromDelays(int categoryID) {
+        for (int excluded : EXCLUDED_DELAY_CATEGORIES) {
+            if (excluded == categoryID) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
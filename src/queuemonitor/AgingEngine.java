@@ -0,0 +1,180 @@
+package queuemonitor;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * This class keeps, in a heap ordered by time, the moment each ticket
+ * crosses the SLA of a panel, such as the 24 hours after which an
+ * unassigned ticket is a delay. It tells the controller when the next
+ * ticket crosses, so the panels can be rebuilt at that second instead of at
+ * the next poll, and without a query.
+ * Entries are not removed when their ticket changes or closes; they are
+ * dropped when they reach the top of the heap and no longer hold.
+ *
+ * @author bshteinfeld
+ */
+public class AgingEngine {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Panels which have an SLA
+    private final TicketRules.Panel[] panels;
+    // Heap of the times tickets cross an SLA, in seconds since the epoch,
+    // with the ID of the ticket and the index of the panel of each entry
+    private long[] deadlines;
+    private int[] ids;
+    private int[] panelIndexes;
+    private int size;
+    // Slots which changed since the last update, re-used
+    private final BitSet changed;
+
+    /**
+     * Create an engine for the panels of the given rules which have an SLA.
+     */
+    public AgingEngine(TicketRules rules) {
+        List<TicketRules.Panel> all = rules.getPanels();
+        int n = 0;
+        TicketRules.Panel[] withSla = new TicketRules.Panel[all.size()];
+        for (TicketRules.Panel panel : all) {
+            if (panel.hasSla()) {
+                withSla[n++] = panel;
+            }
+        }
+        panels = Arrays.copyOf(withSla, n);
+        deadlines = new long[INITIAL_CAPACITY];
+        ids = new int[INITIAL_CAPACITY];
+        panelIndexes = new int[INITIAL_CAPACITY];
+        changed = new BitSet();
+    }
+
+    /**
+     * Add the deadlines of the tickets which changed since the last update.
+     *
+     * @param now -- the time now, in seconds since the epoch
+     */
+    public void update(TicketStore store, long now) {
+        store.takeChanged(changed);
+        if (panels.length == 0) {
+            return;
+        }
+        // Rebuild the heap once it holds mostly entries which no longer hold
+        if (size > 2 * store.size() * panels.length + INITIAL_CAPACITY) {
+            size = 0;
+            changed.or(store.usedSlots());
+        }
+        int today = today(now);
+        for (int slot = changed.nextSetBit(0); slot >= 0; slot = changed.nextSetBit(slot + 1)) {
+            for (int p = 0; p < panels.length; p++) {
+                long deadline = deadline(store, slot, p, today);
+                if (deadline != Long.MAX_VALUE && deadline > now) {
+                    push(deadline, store.getID(slot), p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the next time a ticket held by the store crosses an SLA, in
+     * seconds since the epoch, Long.MAX_VALUE if none will. Deadlines up to
+     * now are dropped, the snapshot built now already shows them.
+     *
+     * @param now -- the time now, in seconds since the epoch
+     */
+    public long nextDeadline(TicketStore store, long now) {
+        int today = today(now);
+        while (size > 0) {
+            if (deadlines[0] > now) {
+                int slot = store.slotOf(ids[0]);
+                if (slot >= 0 && deadline(store, slot, panelIndexes[0], today) == deadlines[0]) {
+                    return deadlines[0];
+                }
+            }
+            pop();
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Return the number of deadlines held, including those which no longer
+     * hold.
+     */
+    public int size() {
+        return size;
+    }
+
+    /*
+     * The SLA deadline of a ticket for a panel, Long.MAX_VALUE if the ticket
+     * would not be shown by the panel whenever it is.
+     */
+    private long deadline(TicketStore store, int slot, int panel, int today) {
+        if (!TicketClassifier.matchesApartFromAge(panels[panel], store, slot, today)) {
+            return Long.MAX_VALUE;
+        }
+        return TicketClassifier.slaDeadline(panels[panel], store, slot);
+    }
+
+    private static int today(long now) {
+        return (int) Instant.ofEpochSecond(now).atZone(ZoneId.systemDefault())
+                .toLocalDate().toEpochDay();
+    }
+
+    private void push(long deadline, int id, int panel) {
+        if (size == deadlines.length) {
+            deadlines = Arrays.copyOf(deadlines, size * 2);
+            ids = Arrays.copyOf(ids, size * 2);
+            panelIndexes = Arrays.copyOf(panelIndexes, size * 2);
+        }
+        int i = size++;
+        // Move the parents down until the place of the new entry is found
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (deadlines[parent] <= deadline) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        deadlines[i] = deadline;
+        ids[i] = id;
+        panelIndexes[i] = panel;
+    }
+
+    private void pop() {
+        size--;
+        if (size == 0) {
+            return;
+        }
+        long deadline = deadlines[size];
+        int id = ids[size];
+        int panel = panelIndexes[size];
+        int i = 0;
+        // Move the smaller child up until the place of the last entry is found
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && deadlines[child + 1] < deadlines[child]) {
+                child++;
+            }
+            if (deadline <= deadlines[child]) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        deadlines[i] = deadline;
+        ids[i] = id;
+        panelIndexes[i] = panel;
+    }
+
+    private void move(int from, int to) {
+        deadlines[to] = deadlines[from];
+        ids[to] = ids[from];
+        panelIndexes[to] = panelIndexes[from];
+    }
+}
@@ -0,0 +1,83 @@
+package queuemonitor;
+
+import com.github.shyiko.mysql.binlog.BinaryLogClient;
+import com.github.shyiko.mysql.binlog.event.DeleteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.Event;
+import com.github.shyiko.mysql.binlog.event.EventData;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class connects a BinlogFeed to the binary log with the replication
+ * client of mysql-binlog-connector-java, and passes on the table map and
+ * row events and the state of the connection. It is the only class using
+ * the client, and is only loaded when the feed starts, so the monitor runs
+ * without the jar as long as binlog.enabled is off.
+ *
+ * @author bshteinfeld
+ */
+class BinlogClient implements BinaryLogClient.EventListener,
+        BinaryLogClient.LifecycleListener {
+
+    private final BinlogFeed feed;
+    private final BinaryLogClient client;
+
+    BinlogClient(BinlogFeed feed, String host, int port, String user, String password,
+            long serverID) {
+        this.feed = feed;
+        client = new BinaryLogClient(host, port, user, password);
+        client.setServerId(serverID);
+        client.registerEventListener(this);
+        client.registerLifecycleListener(this);
+    }
+
+    /**
+     * Connect, waiting at most the given time (ms), then follow the binary
+     * log on a thread of the client, which reconnects by itself.
+     */
+    void connect(long timeout) throws IOException, TimeoutException {
+        client.connect(timeout);
+    }
+
+    void disconnect() throws IOException {
+        client.disconnect();
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        EventData data = event.getData();
+        if (data instanceof TableMapEventData) {
+            TableMapEventData map = (TableMapEventData) data;
+            feed.tableMapped(map.getTableId(), map.getDatabase(), map.getTable());
+        } else if (data instanceof WriteRowsEventData) {
+            feed.rowsChanged(((WriteRowsEventData) data).getTableId());
+        } else if (data instanceof UpdateRowsEventData) {
+            feed.rowsChanged(((UpdateRowsEventData) data).getTableId());
+        } else if (data instanceof DeleteRowsEventData) {
+            feed.rowsChanged(((DeleteRowsEventData) data).getTableId());
+        }
+    }
+
+    @Override
+    public void onConnect(BinaryLogClient binlog) {
+        feed.connected();
+    }
+
+    @Override
+    public void onCommunicationFailure(BinaryLogClient binlog, Exception ex) {
+        feed.lost("onCommunicationFailure");
+    }
+
+    @Override
+    public void onEventDeserializationFailure(BinaryLogClient binlog, Exception ex) {
+        System.err.println("Unreadable binlog event: " + ex);
+    }
+
+    @Override
+    public void onDisconnect(BinaryLogClient binlog) {
+        feed.lost("onDisconnect");
+    }
+}
@@ -0,0 +1,138 @@
+package queuemonitor;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class follows the binary log of the KACE database as a MySQL
+ * replication client, and calls back as soon as a row of the ticket table
+ * is written, updated or deleted. The monitor then polls straight away
+ * instead of waiting for the next scheduled poll.
+ * The replication client (mysql-binlog-connector-java) is an optional
+ * dependency, used by BinlogClient, which is only loaded once the feed is
+ * started. Without it, or without access to the binary log, the feed does
+ * not start and the monitor keeps polling.
+ *
+ * @author bshteinfeld
+ */
+public class BinlogFeed {
+
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String password;
+    private final long serverID;
+    // Database and name of the ticket table, ORG1 is the first organization
+    // of KACE, the others have tables of the same name
+    private final String database;
+    private final String table;
+    private final long connectTimeout;
+    // Called when a row of the ticket table changes, or the feed is lost
+    private final Runnable onChange;
+    // IDs the binary log gives the ticket table, which change when the
+    // table is altered
+    private final Set<Long> tableIDs;
+    private BinlogClient client;
+    private volatile boolean connected;
+
+    /**
+     * Create a feed from the binlog.* settings. It is not started.
+     *
+     * @param onChange -- called, on the feed's thread, when a ticket row
+     * changes or the feed is lost
+     */
+    public BinlogFeed(QMConfig config, Runnable onChange) {
+        host = config.get("binlog.host", "192.168.32.104");
+        port = (int) config.getLong("binlog.port", 3306);
+        user = config.get("binlog.user", null);
+        password = config.get("binlog.password", "");
+        serverID = config.getLong("binlog.serverId", 4747);
+        database = config.get("binlog.database", "ORG1");
+        table = config.get("binlog.table", "HD_TICKET");
+        connectTimeout = config.getLong("binlog.connect.timeout.millis", 5000);
+        this.onChange = onChange;
+        tableIDs = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Connect to the binary log.
+     *
+     * @return -- false if the client is missing or the connection failed
+     */
+    public boolean start() {
+        if (user == null) {
+            System.err.println("No binlog.user set, polling only.");
+            return false;
+        }
+        try {
+            client = new BinlogClient(this, host, port, user, password, serverID);
+            // Connects on a thread of the client, which reconnects by itself
+            client.connect(connectTimeout);
+            connected = true;
+            return true;
+        } catch (NoClassDefFoundError ex) {
+            System.err.println("Binlog client not found, polling only.");
+        } catch (IOException | TimeoutException ex) {
+            System.err.println("Unable to follow the binlog, polling only: " + ex);
+        }
+        client = null;
+        return false;
+    }
+
+    /**
+     * Return true while changes arrive from the binary log.
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Disconnect from the binary log.
+     */
+    public void close() {
+        connected = false;
+        if (client != null) {
+            try {
+                client.disconnect();
+            } catch (IOException ex) {
+                System.err.println("Error disconnecting from the binlog: " + ex);
+            }
+            client = null;
+        }
+    }
+
+    /*
+     * Remember the ID the binary log gives a table, if it is the ticket
+     * table.
+     */
+    void tableMapped(long tableID, String db, String name) {
+        if (database.equalsIgnoreCase(db) && table.equalsIgnoreCase(name)) {
+            tableIDs.add(tableID);
+        }
+    }
+
+    /*
+     * Call back if rows of the ticket table were written, updated or
+     * deleted.
+     */
+    void rowsChanged(long tableID) {
+        if (tableIDs.contains(tableID)) {
+            onChange.run();
+        }
+    }
+
+    void connected() {
+        connected = true;
+    }
+
+    void lost(String reason) {
+        if (connected) {
+            System.err.println("Binlog feed lost (" + reason + "), polling until it is back.");
+            connected = false;
+            // Poll now, the scheduled poll may be far away
+            onChange.run();
+        }
+    }
+}
@@ -2,82 +2,429 @@ package queuemonitor;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class helps with connection to the KACE ticketing system and takes
  * care of executing SQL search queries.
+ * It keeps a small pool of connections, each with its own cache of prepared
+ * statements. Broken connections are dropped and re-opened with a back off,
+ * so the monitor recovers by itself when MySQL closes an idle connection.
  * @author bshteinfeld
  */
 public class DBConnection {
     // Name of JDBC driver (jar file included)
-    private static final String JDBC_DRIVER = "com.mysql.jdbc.Driver";
-    // IP of the KACE server
-    private static final String DB_URL = "jdbc:mysql://192.168.32.104/ORG1";
+    public static final String JDBC_DRIVER = "com.mysql.jdbc.Driver";
+    // IP of the KACE server. Ask the driver to prepare statements on the
+    // server and to keep them cached, and to read KACE's '0000-00-00' dates
+    // as NULL timestamps.
+    public static final String DB_URL = "jdbc:mysql://192.168.32.104/ORG1"
+            + "?useServerPrepStmts=true&cachePrepStmts=true"
+            + "&zeroDateTimeBehavior=convertToNull";
+    // Username to KACE is R1, pass is box747 by default
+    public static final String DB_USER = "R1";
+    public static final String DB_PASS = "box747";
+    // Maximum number of open connections
+    private static final int POOL_SIZE = 2;
+    // Validate connections which have been idle for longer than this (ms)
+    private static final long VALIDATE_AFTER_IDLE = 30000;
+    // Seconds to wait for a connection to be validated
+    private static final int VALIDATION_TIMEOUT = 2;
+    // Wait for a free connection at most this long (ms)
+    private static final long BORROW_TIMEOUT = 10000;
+    // Bounds of the delay between two failed attempts to connect (ms)
+    private static final long MIN_BACKOFF = 1000;
+    private static final long MAX_BACKOFF = 60000;
+    /**
+     * Fetch size hint asking the MySQL driver to stream rows one at a time
+     * instead of reading the whole result into memory first. Other drivers
+     * read these results with their default fetch size.
+     */
+    public static final int STREAM_RESULTS = Integer.MIN_VALUE;
     private String USER;
     private String PASS;
-    private Connection connection;
-    
+    // Driver class and URL connected to
+    private final String driver;
+    private final String url;
+    // True for MySQL, whose driver streams results and takes the connect
+    // timeout in the URL
+    private final boolean mysql;
+
+    // Connections which are not in use
+    private final BlockingQueue<PooledConnection> idle;
+    // Number of connections currently open, in use or idle
+    private int openConnections;
+    // Number of connections dropped while the pool is open which no new
+    // connection has replaced yet
+    private int toReplace;
+    // Earliest time of the next attempt to connect, and current back off
+    private long nextAttempt;
+    private long backoff;
+    private boolean driverLoaded;
+    private volatile boolean closed;
+    private final QMMetrics metrics = QMMetrics.getInstance();
+    // Seconds the server may spend on one query, 0 for no limit
+    private volatile int queryTimeout;
+    // Time to wait for the server when connecting (ms), 0 for no limit
+    private volatile int connectTimeout;
+    // Statements which are executing, so they can be cancelled
+    private final Set<PreparedStatement> running;
+
+    /**
+     * Handles the rows returned by a query. The ResultSet is closed once the
+     * handler returns.
+     */
+    public interface ResultSetHandler<T> {
+        T handle(ResultSet rs) throws SQLException;
+    }
+
+    /*
+     * One connection of the pool with its cache of prepared statements.
+     */
+    private static class PooledConnection {
+        private final Connection connection;
+        private final HashMap<String, PreparedStatement> statements;
+        private long lastUsed;
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+            statements = new HashMap<String, PreparedStatement>();
+            lastUsed = System.currentTimeMillis();
+        }
+
+        PreparedStatement prepare(String qry) throws SQLException {
+            PreparedStatement statm = statements.get(qry);
+            if (statm == null || statm.isClosed()) {
+                statm = connection.prepareStatement(qry,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statements.put(qry, statm);
+            }
+            return statm;
+        }
+
+        void close() {
+            for (PreparedStatement statm : statements.values()) {
+                try {
+                    statm.close();
+                } catch (SQLException ex) {
+                    // the connection is closed below anyway
+                }
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                System.err.println("Error closing database connection: " + ex.getMessage());
+            }
+        }
+    }
+
     public DBConnection() {
-        connection = null;
-        // Username to KACE is R1, pass is box747 by default
-        USER = "R1";
-        PASS = "box747";
+        this(JDBC_DRIVER, DB_URL, DB_USER, DB_PASS);
+    }
+
+    /**
+     * Create a pool of connections to another database, such as a copy of
+     * KACE or the in-memory copy of the soak test.
+     *
+     * @param driver -- name of the JDBC driver class
+     */
+    public DBConnection(String driver, String url, String user, String password) {
+        this.driver = driver;
+        this.url = url;
+        mysql = url.startsWith("jdbc:mysql:");
+        idle = new LinkedBlockingQueue<PooledConnection>();
+        running = Collections.newSetFromMap(
+                new ConcurrentHashMap<PreparedStatement, Boolean>());
+        openConnections = 0;
+        nextAttempt = 0;
+        backoff = MIN_BACKOFF;
+        USER = user;
+        PASS = password;
     }
-    
+
     /**
      * Initialize a connection to the KACE database
+     *
+     * @return -- false if no connection could be opened
      */
-    public void setUpDBConnection() {
-        try {
-            // Register a JDBC driver
-            Class.forName("com.mysql.jdbc.Driver");
-            // Open a connection to database
-            //System.out.println("Connecting to database...");
-            connection = DriverManager.getConnection(DB_URL, USER, PASS);
-        } catch(SQLException ex) {
-            System.err.println("Error connecting to DB");
-        } catch (ClassNotFoundException ex) {
-            System.err.println("Error finding JDBC jar file");
-        } 
+    public boolean setUpDBConnection() {
+        closed = false;
+        PooledConnection pc = borrow();
+        if (pc != null) {
+            release(pc);
+        }
+        return pc != null;
     }
-    
+
     /**
-     * Close a connection to the KACE database.
+     * Return the time until the next attempt to connect after a failed one
+     * (ms), 0 if a connection can be opened now.
+     */
+    public synchronized long getRetryDelay() {
+        return Math.max(0, nextAttempt - System.currentTimeMillis());
+    }
+
+    /**
+     * Close all connections to the KACE database.
      */
     public void closeDBConnection() {
-        try {
-            if (connection != null)
-                connection.close();
-        } catch (SQLException e){
-            System.err.println("Error closing database file: " + e.getMessage());
+        closed = true;
+        ArrayList<PooledConnection> toClose = new ArrayList<PooledConnection>();
+        idle.drainTo(toClose);
+        for (PooledConnection pc : toClose) {
+            pc.close();
+            connectionClosed();
+        }
+    }
+
+    /**
+     * Set the number of seconds the server may spend on one query before it
+     * is cancelled, 0 for no limit.
+     */
+    public void setQueryTimeout(int seconds) {
+        queryTimeout = seconds;
+    }
+
+    /**
+     * Set the time to wait for the server to accept a connection and the
+     * login, 0 for no limit.
+     */
+    public void setConnectTimeout(int millis) {
+        connectTimeout = millis;
+    }
+
+    /**
+     * Cancel every query which is executing. The queries fail and return
+     * null. May be called from any thread.
+     */
+    public void cancelRunning() {
+        for (PreparedStatement statm : running) {
+            try {
+                statm.cancel();
+            } catch (SQLException ex) {
+                System.err.println("Error cancelling query: " + ex.getMessage());
+            }
         }
     }
-    
+
     /**
-     * Execute a search query in SQL.
-     * @param qry -- Query in SQL
-     * @return -- ResultSet of the query
+     * Execute a search query in SQL. Statements are prepared once per
+     * connection and re-used by later calls with the same query.
+     * @param qry -- Query in SQL, with '?' for each parameter
+     * @param handler -- Reads the result of the query
+     * @param params -- Values of the parameters of the query
+     * @return -- Value returned by the handler, null if the query failed
      */
-    public ResultSet executeQuery(String qry) {
-        if(connection == null) {
-            System.err.println(" Must set up connection to DB before executing query.");
+    public <T> T executeQuery(String qry, ResultSetHandler<T> handler, Object... params) {
+        return executeQuery(qry, 0, handler, params);
+    }
+
+    /**
+     * Execute a search query in SQL with a fetch size hint.
+     * @param qry -- Query in SQL, with '?' for each parameter
+     * @param fetchSize -- Rows to fetch at a time, 0 for the driver default
+     * or STREAM_RESULTS for large results
+     * @param handler -- Reads the result of the query
+     * @param params -- Values of the parameters of the query
+     * @return -- Value returned by the handler, null if the query failed
+     */
+    public <T> T executeQuery(String qry, int fetchSize, ResultSetHandler<T> handler,
+            Object... params) {
+        PooledConnection pc = borrow();
+        if (pc == null) {
+            System.err.println("No connection to DB, unable to execute query.");
             return null;
         }
-        // Create a statment in order to execute the query
-        //System.out.println("Creating statement...");
-        Statement statm = null;
+        boolean broken = false;
         ResultSet rs = null;
+        PreparedStatement statm = null;
         try {
-            statm = connection.createStatement();
-            rs = statm.executeQuery(qry);
+            statm = pc.prepare(qry);
+            statm.setFetchSize(fetchSize == STREAM_RESULTS && !mysql ? 0 : fetchSize);
+            statm.setQueryTimeout(queryTimeout);
+            running.add(statm);
+            for (int i = 0; i < params.length; i++) {
+                statm.setObject(i + 1, params[i]);
+            }
+            long start = System.nanoTime();
+            rs = statm.executeQuery();
+            long executed = System.nanoTime();
+            metrics.getExecute().record((executed - start) / 1000);
+            T result = handler.handle(rs);
+            metrics.getMapping().recordSince(executed);
+            return result;
         } catch (SQLException ex) {
-            System.err.println("Error creating statement");
+            System.err.println("Error executing query: " + ex.getMessage());
+            // Do not trust the connection after an error, open a new one
+            broken = true;
             return null;
+        } finally {
+            if (statm != null) {
+                running.remove(statm);
+            }
+            if (rs != null) {
+                try {
+                    rs.close();
+                } catch (SQLException ex) {
+                    broken = true;
+                }
+            }
+            if (broken) {
+                discard(pc);
+            } else {
+                release(pc);
+            }
+        }
+    }
+
+    /*
+     * Take a connection from the pool, opening a new one if needed.
+     * Returns null if no connection could be made.
+     */
+    private PooledConnection borrow() {
+        long deadline = System.currentTimeMillis() + BORROW_TIMEOUT;
+        while (!closed) {
+            PooledConnection pc = idle.poll();
+            if (pc == null) {
+                if (reserveConnection()) {
+                    return connect();
+                }
+                // No connection will be returned while we are backing off
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0 || isBackingOff()) {
+                    return null;
+                }
+                try {
+                    pc = idle.poll(wait, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                if (pc == null) {
+                    continue;
+                }
+            }
+            if (isUsable(pc)) {
+                return pc;
+            }
+            discard(pc);
+        }
+        return null;
+    }
+
+    private void release(PooledConnection pc) {
+        pc.lastUsed = System.currentTimeMillis();
+        if (closed) {
+            discard(pc);
+        } else {
+            idle.add(pc);
+        }
+    }
+
+    private void discard(PooledConnection pc) {
+        pc.close();
+        connectionClosed();
+        if (!closed) {
+            connectionDropped();
+        }
+    }
+
+    /*
+     * Validate connections which sat idle long enough for MySQL to drop them.
+     */
+    private boolean isUsable(PooledConnection pc) {
+        if (System.currentTimeMillis() - pc.lastUsed < VALIDATE_AFTER_IDLE) {
+            return true;
+        }
+        try {
+            return pc.connection.isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    /*
+     * Reserve a slot for a new connection if the pool is not full and we are
+     * not backing off after a failed attempt.
+     */
+    private synchronized boolean reserveConnection() {
+        if (openConnections >= POOL_SIZE || System.currentTimeMillis() < nextAttempt) {
+            return false;
         }
-        return rs;
+        openConnections++;
+        return true;
+    }
+
+    private synchronized boolean isBackingOff() {
+        return openConnections == 0 && System.currentTimeMillis() < nextAttempt;
+    }
+
+    private synchronized void connectionClosed() {
+        openConnections--;
+    }
+
+    /*
+     * Open a new connection in a slot reserved by reserveConnection().
+     */
+    private PooledConnection connect() {
+        try {
+            // Register a JDBC driver
+            if (!driverLoaded) {
+                Class.forName(driver);
+                driverLoaded = true;
+            }
+            // Open a connection to database
+            //System.out.println("Connecting to database...");
+            int timeout = connectTimeout;
+            DriverManager.setLoginTimeout((timeout + 999) / 1000);
+            Connection connection = DriverManager.getConnection(timeout > 0 && mysql
+                    ? url + (url.indexOf('?') < 0 ? "?" : "&") + "connectTimeout=" + timeout
+                    : url, USER, PASS);
+            if (connectSucceeded()) {
+                metrics.reconnected();
+            }
+            return new PooledConnection(connection);
+        } catch(SQLException ex) {
+            System.err.println("Error connecting to DB: " + ex.getMessage());
+        } catch (ClassNotFoundException ex) {
+            System.err.println("Error finding JDBC jar file");
+        }
+        connectFailed();
+        metrics.connectFailed();
+        return null;
+    }
+
+    /*
+     * Return true if the new connection replaces one which was dropped.
+     */
+    private synchronized boolean connectSucceeded() {
+        backoff = MIN_BACKOFF;
+        nextAttempt = 0;
+        if (toReplace > 0) {
+            toReplace--;
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void connectionDropped() {
+        toReplace++;
+    }
+
+    private synchronized void connectFailed() {
+        openConnections--;
+        nextAttempt = System.currentTimeMillis() + backoff;
+        backoff = Math.min(backoff * 2, MAX_BACKOFF);
     }
-    
 }
@@ -0,0 +1,309 @@
+package queuemonitor;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Insets;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/**
+ * This class shows lines of text like an airport departure board. It paints
+ * the lines itself into a back buffer, from glyphs and rows which are only
+ * rasterized once, and when the lines change only the rows which differ are
+ * drawn again and copied to the screen. A changed row flips into place one
+ * character at a time, at a steady frame rate.
+ * Must only be used on the Event Dispatch Thread.
+ *
+ * @author bshteinfeld
+ */
+public class DepartureBoard extends JComponent {
+
+    private static final long serialVersionUID = 1L;
+
+    // Time a changed row takes to flip into place (ns)
+    private static final long TRANSITION = 400000000L;
+    // Time between two frames of a transition (ms), about 30 frames a second
+    private static final int FRAME_DELAY = 33;
+    // Characters shown on a flap which has not settled yet
+    private static final String FLAPS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789#";
+    // Forget all cached row images when there are more than this many
+    private static final int MAX_CACHED_ROWS = 512;
+
+    private final Font font;
+    // Rows shown, and the time each row started flipping
+    // (System.nanoTime()), 0 once it has settled
+    private List<String> rows;
+    private long[] flipStart;
+    private Color background;
+    // Everything shown, drawn again only where it changed
+    private BufferedImage buffer;
+    // Rasterized glyphs of the font, and rows built from them
+    private final HashMap<Character, BufferedImage> glyphs;
+    private final HashMap<String, BufferedImage> rowImages;
+    private int rowHeight;
+    private int ascent;
+    // Draws the frames of the transitions, only runs while a row flips
+    private final Timer timer;
+    private int frame;
+    private boolean transitions;
+
+    /**
+     * Create an empty board.
+     *
+     * @param font -- font of every line
+     */
+    public DepartureBoard(Font font) {
+        this.font = font;
+        rows = new ArrayList<String>();
+        flipStart = new long[0];
+        background = Color.WHITE;
+        glyphs = new HashMap<Character, BufferedImage>();
+        rowImages = new HashMap<String, BufferedImage>();
+        transitions = true;
+        setOpaque(true);
+        setFont(font);
+        setForeground(Color.BLACK);
+        timer = new Timer(FRAME_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                nextFrame();
+            }
+        });
+        timer.setCoalesce(true);
+    }
+
+    /**
+     * Turn the flipping of changed rows on or off. Without it, changed rows
+     * are shown straight away.
+     */
+    public void setTransitions(boolean transitions) {
+        this.transitions = transitions;
+    }
+
+    /**
+     * Show lines on a background. Only the rows which changed are drawn
+     * again, unless the background changed.
+     */
+    public void show(List<String> lines, Color background) {
+        List<String> old = rows;
+        long now = System.nanoTime();
+        long[] starts = new long[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            boolean same = i < old.size() && old.get(i).equals(lines.get(i));
+            // Nothing flips before the board is first painted
+            starts[i] = same ? (i < flipStart.length ? flipStart[i] : 0)
+                    : (transitions && buffer != null ? now : 0);
+        }
+        rows = new ArrayList<String>(lines);
+        flipStart = starts;
+
+        if (buffer == null) {
+            this.background = background;
+            repaint();
+            return;
+        }
+        if (!background.equals(this.background)) {
+            this.background = background;
+            drawAll();
+            repaint();
+        } else {
+            int n = Math.max(old.size(), rows.size());
+            for (int i = 0; i < n; i++) {
+                if (i >= rows.size() || i >= old.size() || !old.get(i).equals(rows.get(i))) {
+                    drawRow(i, true);
+                }
+            }
+        }
+        if (transitions && !timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        FontMetrics fm = getFontMetrics(font);
+        Insets insets = getInsets();
+        return new Dimension(fm.stringWidth("T#: 00000 (Mon Oct 19)") + insets.left
+                + insets.right, fm.getHeight() * 4 + insets.top + insets.bottom);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        if (buffer == null || buffer.getWidth() != getWidth()
+                || buffer.getHeight() != getHeight()) {
+            if (getWidth() <= 0 || getHeight() <= 0) {
+                return;
+            }
+            createBuffer();
+            drawAll();
+        }
+        // Only the region asked to be repainted is copied
+        g.drawImage(buffer, 0, 0, null);
+    }
+
+    private void createBuffer() {
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        buffer = gc != null
+                ? gc.createCompatibleImage(getWidth(), getHeight(), Transparency.OPAQUE)
+                : new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
+        FontMetrics fm = getFontMetrics(font);
+        rowHeight = fm.getHeight();
+        ascent = fm.getAscent();
+    }
+
+    /*
+     * Draw the whole board into the buffer.
+     */
+    private void drawAll() {
+        Graphics2D g = buffer.createGraphics();
+        g.setColor(background);
+        g.fillRect(0, 0, buffer.getWidth(), buffer.getHeight());
+        g.dispose();
+        for (int i = 0; i < rows.size(); i++) {
+            drawRow(i, false);
+        }
+    }
+
+    /*
+     * Draw one row into the buffer, as it is in the current frame, and ask
+     * for it to be copied to the screen unless the whole board is being
+     * painted. Rows below the board are skipped.
+     */
+    private void drawRow(int i, boolean repaint) {
+        Insets insets = getInsets();
+        int y = insets.top + i * rowHeight;
+        int width = buffer.getWidth() - insets.left - insets.right;
+        if (y >= buffer.getHeight() - insets.bottom || width <= 0) {
+            return;
+        }
+        int height = Math.min(rowHeight, buffer.getHeight() - insets.bottom - y);
+        Graphics2D g = buffer.createGraphics();
+        g.clipRect(insets.left, y, width, height);
+        g.setColor(background);
+        g.fillRect(insets.left, y, width, height);
+        if (i < rows.size()) {
+            String row = rows.get(i);
+            long start = flipStart[i];
+            long elapsed = System.nanoTime() - start;
+            if (start == 0 || elapsed >= TRANSITION) {
+                g.drawImage(rowImage(row), insets.left, y, null);
+            } else {
+                drawFlipping(g, row, (double) elapsed / TRANSITION, insets.left, y);
+            }
+        }
+        g.dispose();
+        if (repaint) {
+            repaint(insets.left, y, width, height);
+        }
+    }
+
+    /*
+     * Draw a row part way through flipping: the characters on the left have
+     * settled, the others still show passing flaps.
+     */
+    private void drawFlipping(Graphics2D g, String row, double progress, int x, int y) {
+        int settled = (int) Math.ceil(progress * row.length());
+        for (int k = 0; k < row.length(); k++) {
+            char c = row.charAt(k);
+            BufferedImage glyph = glyph(c);
+            if (k < settled || c == ' ') {
+                g.drawImage(glyph, x, y, null);
+            } else {
+                // a passing flap, in the space of the character it becomes
+                Graphics2D cell = (Graphics2D) g.create();
+                cell.clipRect(x, y, glyph.getWidth(), rowHeight);
+                cell.drawImage(glyph(FLAPS.charAt((frame + k) % FLAPS.length())), x, y, null);
+                cell.dispose();
+            }
+            x += glyph.getWidth();
+        }
+    }
+
+    /*
+     * Draw the next frame of every row which is flipping, and stop the
+     * timer once none is.
+     */
+    private void nextFrame() {
+        frame++;
+        boolean flipping = false;
+        long now = System.nanoTime();
+        for (int i = 0; i < rows.size(); i++) {
+            if (flipStart[i] != 0) {
+                if (buffer != null) {
+                    drawRow(i, true);
+                }
+                if (now - flipStart[i] >= TRANSITION) {
+                    flipStart[i] = 0;
+                } else {
+                    flipping = true;
+                }
+            }
+        }
+        if (!flipping) {
+            timer.stop();
+        }
+    }
+
+    /*
+     * Return the image of a whole row, built from its glyphs the first time
+     * it is shown.
+     */
+    private BufferedImage rowImage(String row) {
+        BufferedImage image = rowImages.get(row);
+        if (image == null) {
+            if (rowImages.size() >= MAX_CACHED_ROWS) {
+                rowImages.clear();
+            }
+            int width = 0;
+            for (int k = 0; k < row.length(); k++) {
+                width += glyph(row.charAt(k)).getWidth();
+            }
+            image = new BufferedImage(Math.max(1, width), rowHeight,
+                    BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            int x = 0;
+            for (int k = 0; k < row.length(); k++) {
+                BufferedImage glyph = glyph(row.charAt(k));
+                g.drawImage(glyph, x, 0, null);
+                x += glyph.getWidth();
+            }
+            g.dispose();
+            rowImages.put(row, image);
+        }
+        return image;
+    }
+
+    /*
+     * Return the rasterized image of a character, as wide as its advance.
+     */
+    private BufferedImage glyph(char c) {
+        BufferedImage image = glyphs.get(c);
+        if (image == null) {
+            FontMetrics fm = getFontMetrics(font);
+            image = new BufferedImage(Math.max(1, fm.charWidth(c)), rowHeight,
+                    BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                    RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setFont(font);
+            g.setColor(getForeground());
+            g.drawString(String.valueOf(c), 0, ascent);
+            g.dispose();
+            glyphs.put(c, image);
+        }
+        return image;
+    }
+}
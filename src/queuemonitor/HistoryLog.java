@@ -0,0 +1,410 @@
+package queuemonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class keeps the counts of every snapshot in an append-only log, so
+ * that trends of the queues can be read back without querying KACE. There
+ * is one file per day, named after the day, of fixed size records which are
+ * written through a memory mapping. Records are in time order, so a range
+ * of time is found in a segment by binary search.
+ *
+ * A file starts with a header of 512 bytes naming the panels whose sizes
+ * are kept, in the order of the sizes in a record:
+ * int version, int number of panels, then the names, each a short length
+ * and that many bytes of UTF-8
+ * A panel first seen during the day is added to the end of the header, so
+ * the records already written keep their meaning. At most 11 panels fit
+ * in a record; the sizes of further panels are not kept.
+ *
+ * Layout of a record, 64 bytes:
+ * long time, int queueID, int numUnassigned, int numOpen,
+ * int[11] sizes of the panels, -1 if the panel was not shown
+ *
+ * @author bshteinfeld
+ */
+public class HistoryLog implements SnapshotListener {
+
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 512;
+    private static final int RECORD_SIZE = 64;
+    // Panel sizes which fit in a record after the counts
+    private static final int MAX_PANELS = (RECORD_SIZE - 20) / 4;
+    // Size of the mapping of a new segment, grown by doubling when full
+    private static final int INITIAL_MAPPING = HEADER_SIZE + 8192 * RECORD_SIZE;
+    // Segments kept mapped at the same time
+    private static final int MAX_OPEN_SEGMENTS = 32;
+    private static final String SUFFIX = ".qmh";
+
+    /*
+     * The file of one day and its mapping.
+     */
+    private static class Segment {
+        private final LocalDate day;
+        // Open for segments which are written to, null otherwise
+        private final FileChannel channel;
+        private MappedByteBuffer buf;
+        // Panels named in the header, in the order of the sizes in a record
+        private final ArrayList<String> panelNames;
+        // Bytes of the header in use
+        private int headerEnd;
+        // Panels whose sizes did not fit, reported once
+        private final Set<String> dropped;
+        // Number of records written
+        private int count;
+
+        Segment(LocalDate day, FileChannel channel, MappedByteBuffer buf) throws IOException {
+            this.day = day;
+            this.channel = channel;
+            this.buf = buf;
+            panelNames = new ArrayList<String>();
+            dropped = new HashSet<String>();
+            readHeader();
+            count = findEnd(buf);
+        }
+
+        long time(int i) {
+            return buf.getLong(HEADER_SIZE + i * RECORD_SIZE);
+        }
+
+        /*
+         * Return the first record at or after the given time.
+         */
+        int search(long time) {
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (time(mid) < time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        HistoryPoint read(int i) {
+            int at = HEADER_SIZE + i * RECORD_SIZE;
+            int[] sizes = new int[panelNames.size()];
+            for (int p = 0; p < sizes.length; p++) {
+                sizes[p] = buf.getInt(at + 20 + p * 4);
+            }
+            return new HistoryPoint(buf.getLong(at), buf.getInt(at + 8),
+                    Collections.unmodifiableList(new ArrayList<String>(panelNames)),
+                    sizes, buf.getInt(at + 12), buf.getInt(at + 16));
+        }
+
+        void append(long time, QueueSnapshot snapshot) throws IOException {
+            if (HEADER_SIZE + (count + 1) * RECORD_SIZE > buf.capacity()) {
+                buf = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        (long) buf.capacity() * 2);
+            }
+            int at = HEADER_SIZE + count * RECORD_SIZE;
+            buf.putInt(at + 8, snapshot.getQueueID());
+            buf.putInt(at + 12, snapshot.getNumUnassigned());
+            buf.putInt(at + 16, snapshot.getNumOpen());
+            for (int p = 0; p < MAX_PANELS; p++) {
+                buf.putInt(at + 20 + p * 4, -1);
+            }
+            List<String> names = snapshot.getPanelNames();
+            for (int i = 0; i < names.size(); i++) {
+                int p = panelIndex(names.get(i));
+                if (p >= 0) {
+                    buf.putInt(at + 20 + p * 4, snapshot.getPanels().get(i).size());
+                }
+            }
+            // The time is written last: a record without a time marks the
+            // end of the log, so a half written record is never read
+            buf.putLong(at, Math.max(1, time));
+            count++;
+        }
+
+        /*
+         * Return where the size of a panel is kept in a record, adding the
+         * panel to the header if it is new. Returns -1 if there is no room
+         * left for it.
+         */
+        private int panelIndex(String name) {
+            int p = panelNames.indexOf(name);
+            if (p >= 0) {
+                return p;
+            }
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            if (panelNames.size() == MAX_PANELS || headerEnd + 2 + bytes.length > HEADER_SIZE) {
+                if (dropped.add(name)) {
+                    System.err.println("History of " + day + " has no room for panel "
+                            + name + ", its size is not kept");
+                }
+                return -1;
+            }
+            buf.putShort(headerEnd, (short) bytes.length);
+            for (int i = 0; i < bytes.length; i++) {
+                buf.put(headerEnd + 2 + i, bytes[i]);
+            }
+            headerEnd += 2 + bytes.length;
+            panelNames.add(name);
+            // As with the time of a record, the count is written last
+            buf.putInt(4, panelNames.size());
+            return panelNames.size() - 1;
+        }
+
+        /*
+         * Read the panel names from the header, or write an empty header
+         * to a new file.
+         */
+        private void readHeader() throws IOException {
+            if (buf.capacity() < HEADER_SIZE) {
+                throw new IOException("History of " + day + " is truncated");
+            }
+            int version = buf.getInt(0);
+            if (version == 0 && channel != null) {
+                buf.putInt(0, VERSION);
+                version = VERSION;
+            }
+            int n = buf.getInt(4);
+            if (version != VERSION || n < 0 || n > MAX_PANELS) {
+                throw new IOException("History of " + day + " is not in a known format");
+            }
+            headerEnd = 8;
+            for (int p = 0; p < n; p++) {
+                int length = buf.getShort(headerEnd);
+                if (length < 0 || headerEnd + 2 + length > HEADER_SIZE) {
+                    throw new IOException("History of " + day + " has a corrupt header");
+                }
+                byte[] bytes = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    bytes[i] = buf.get(headerEnd + 2 + i);
+                }
+                panelNames.add(new String(bytes, StandardCharsets.UTF_8));
+                headerEnd += 2 + length;
+            }
+        }
+
+        void close() {
+            if (channel == null) {
+                return;
+            }
+            buf.force();
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                System.err.println("Error closing history of " + day + ": " + ex.getMessage());
+            }
+        }
+
+        /*
+         * The mapping is larger than the records written, and zero past
+         * them. Find the first record without a time.
+         */
+        private static int findEnd(MappedByteBuffer buf) {
+            int lo = 0;
+            int hi = (buf.capacity() - HEADER_SIZE) / RECORD_SIZE;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (buf.getLong(HEADER_SIZE + mid * RECORD_SIZE) != 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private final File dir;
+    private final ZoneId zone;
+    // Days of history kept, older segments are deleted
+    private final int retentionDays;
+    // Mapped segments, least recently used first
+    private final LinkedHashMap<LocalDate, Segment> segments;
+    // Segment of the day which is being written
+    private Segment current;
+
+    /**
+     * Create a log in the given directory, which is created if needed.
+     */
+    public HistoryLog(File dir, ZoneId zone, int retentionDays) {
+        this.dir = dir;
+        this.zone = zone;
+        this.retentionDays = retentionDays;
+        segments = new LinkedHashMap<LocalDate, Segment>(16, 0.75f, true);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("Unable to create history directory " + dir);
+        }
+    }
+
+    /**
+     * Append the counts of a snapshot to the log.
+     */
+    @Override
+    public synchronized void snapshotPublished(QueueSnapshot snapshot) {
+        long time = snapshot.getTimeTaken().getTime();
+        LocalDate day = dayOf(time);
+        try {
+            if (current == null || !current.day.equals(day)) {
+                startDay(day);
+            }
+            current.append(time, snapshot);
+        } catch (IOException ex) {
+            System.err.println("Error writing history: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Return the counts of a queue from the given time up to and including
+     * the given time, oldest first.
+     */
+    public synchronized List<HistoryPoint> query(int queueID, long from, long to) {
+        ArrayList<HistoryPoint> points = new ArrayList<HistoryPoint>();
+        LocalDate last = dayOf(to);
+        for (LocalDate day = dayOf(from); !day.isAfter(last); day = day.plusDays(1)) {
+            Segment segment = segment(day);
+            if (segment == null) {
+                continue;
+            }
+            for (int i = segment.search(from); i < segment.count; i++) {
+                if (segment.time(i) > to) {
+                    break;
+                }
+                HistoryPoint point = segment.read(i);
+                if (point.getQueueID() == queueID) {
+                    points.add(point);
+                }
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Write everything to disk and release the files.
+     */
+    public synchronized void close() {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+        current = null;
+    }
+
+    private LocalDate dayOf(long time) {
+        return Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+    }
+
+    private Path file(LocalDate day) {
+        return new File(dir, day + SUFFIX).toPath();
+    }
+
+    /*
+     * Switch writing to the segment of a new day, and drop the segments
+     * which are too old.
+     */
+    private void startDay(LocalDate day) throws IOException {
+        if (current != null) {
+            current.close();
+            segments.remove(current.day);
+            current = null;
+        }
+        Segment segment = segments.remove(day);
+        if (segment != null) {
+            // mapped read only so far
+            segment.close();
+        }
+        FileChannel channel = FileChannel.open(file(day), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        long size = Math.max(channel.size(), INITIAL_MAPPING);
+        try {
+            current = new Segment(day, channel,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        put(current);
+        deleteBefore(day.minusDays(retentionDays));
+    }
+
+    /*
+     * Return the segment of a day, mapping it if needed. Null if there is
+     * no history of that day.
+     */
+    private Segment segment(LocalDate day) {
+        Segment segment = segments.get(day);
+        if (segment != null) {
+            return segment;
+        }
+        Path file = file(day);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            segment = new Segment(day, null,
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException ex) {
+            System.err.println("Error reading history of " + day + ": " + ex.getMessage());
+            return null;
+        }
+        put(segment);
+        return segment;
+    }
+
+    private void put(Segment segment) {
+        segments.put(segment.day, segment);
+        Iterator<Map.Entry<LocalDate, Segment>> it = segments.entrySet().iterator();
+        while (segments.size() > MAX_OPEN_SEGMENTS && it.hasNext()) {
+            Segment oldest = it.next().getValue();
+            if (oldest != current) {
+                oldest.close();
+                it.remove();
+            }
+        }
+    }
+
+    private void deleteBefore(LocalDate oldest) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (!name.endsWith(SUFFIX)) {
+                continue;
+            }
+            LocalDate day;
+            try {
+                day = LocalDate.parse(name.substring(0, name.length() - SUFFIX.length()));
+            } catch (DateTimeParseException ex) {
+                // not one of ours
+                continue;
+            }
+            if (day.isBefore(oldest)) {
+                Segment segment = segments.remove(day);
+                if (segment != null) {
+                    segment.close();
+                }
+                if (!f.delete()) {
+                    System.err.println("Unable to delete old history " + f);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package queuemonitor;
+
+import java.util.List;
+
+/**
+ * This class holds the counts of one snapshot of a queue as kept by the
+ * HistoryLog.
+ *
+ * @author bshteinfeld
+ */
+public class HistoryPoint {
+
+    // Time the snapshot was taken, in milliseconds since the epoch
+    private final long time;
+    private final int queueID;
+    // Panels kept on the day of the snapshot, and their sizes in the same
+    // order, -1 for a panel which was not shown
+    private final List<String> panelNames;
+    private final int[] panelSizes;
+    // Counts of the queue
+    private final int numUnassigned;
+    private final int numOpen;
+
+    public HistoryPoint(long time, int queueID, List<String> panelNames,
+            int[] panelSizes, int numUnassigned, int numOpen) {
+        this.time = time;
+        this.queueID = queueID;
+        this.panelNames = panelNames;
+        this.panelSizes = panelSizes;
+        this.numUnassigned = numUnassigned;
+        this.numOpen = numOpen;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public int getQueueID() {
+        return queueID;
+    }
+
+    public List<String> getPanelNames() {
+        return panelNames;
+    }
+
+    /**
+     * Return the number of tickets a panel showed, -1 if the panel was not
+     * shown or its size was not kept.
+     */
+    public int getPanelSize(String name) {
+        int i = panelNames.indexOf(name);
+        return i < 0 ? -1 : panelSizes[i];
+    }
+
+    public int getNumUnassigned() {
+        return numUnassigned;
+    }
+
+    public int getNumOpen() {
+        return numOpen;
+    }
+}
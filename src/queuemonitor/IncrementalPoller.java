@@ -0,0 +1,228 @@
+package queuemonitor;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class keeps an in-memory store of the open tickets of the queue and
+ * keeps it up to date by only asking KACE for the tickets which changed since
+ * the last poll. The changes are asked for from a little before the latest
+ * modification seen, to catch rows whose transaction committed after a
+ * newer row was read. Every so often the whole queue is re-read to catch
+ * tickets which were deleted or moved to a queue which is not polled.
+ *
+ * @author bshteinfeld
+ */
+public class IncrementalPoller {
+
+    // Default time between two full re-reads of the queue (ms)
+    public static final long DEFAULT_RECONCILE_MILLIS = 300000;
+    // Default time before the watermark from which changes are read (ms)
+    public static final long DEFAULT_LOOK_BACK_MILLIS = 5000;
+
+    private final TicketSource source;
+    private final Clock clock;
+    private final long reconcileMillis;
+    private final long lookBackMillis;
+    // Open tickets, updated in place
+    private final TicketStore store;
+    // Latest modification time and highest ID seen so far
+    private Timestamp lastModified;
+    private int maxID;
+    // Time of the last full re-read (clock ms), and whether the next poll
+    // must re-read the queue whenever that was
+    private long lastReconcile;
+    private boolean reconcileRequested;
+    // True if the last poll removed a ticket from the store
+    private boolean ticketRemoved;
+    // Tickets which the last poll returned as closed
+    private List<Ticket> closedTickets;
+    // Number of open tickets the last poll added, changed or removed
+    private int changedCount;
+
+    /**
+     * Create a new poller reading from the given source, matching titles
+     * against the default panel rules.
+     */
+    public IncrementalPoller(TicketSource source) {
+        this(source, TicketRules.defaults());
+    }
+
+    /**
+     * Create a new poller reading from the given source.
+     *
+     * @param rules -- rules whose title prefixes are matched as tickets
+     * arrive
+     */
+    public IncrementalPoller(TicketSource source, TicketRules rules) {
+        this(source, rules, Clock.systemDefaultZone(), DEFAULT_RECONCILE_MILLIS,
+                DEFAULT_LOOK_BACK_MILLIS);
+    }
+
+    /**
+     * Create a new poller reading from the given source.
+     *
+     * @param rules -- rules whose title prefixes are matched as tickets
+     * arrive
+     * @param clock -- clock deciding when the queue is re-read
+     * @param reconcileMillis -- time between two full re-reads of the queue
+     * @param lookBackMillis -- time before the latest modification seen
+     * from which changes are read again
+     */
+    public IncrementalPoller(TicketSource source, TicketRules rules, Clock clock,
+            long reconcileMillis, long lookBackMillis) {
+        this.source = source;
+        this.clock = clock;
+        this.reconcileMillis = reconcileMillis;
+        this.lookBackMillis = lookBackMillis;
+        store = new TicketStore(rules);
+        reconcileRequested = true;
+        closedTickets = Collections.emptyList();
+    }
+
+    /**
+     * Bring the store up to date with KACE. When the queue is due to be
+     * re-read, the changes are read first, so that tickets closed since the
+     * last poll are returned as closed before the re-read drops them.
+     *
+     * @return -- false if the query failed, in which case the store is left
+     * as it was. If only the re-read fails, the changes are kept and the
+     * next poll tries the re-read again.
+     */
+    public boolean poll() {
+        ticketRemoved = false;
+        changedCount = 0;
+        closedTickets = Collections.emptyList();
+        if (lastModified == null) {
+            return reconcile();
+        }
+        if (!readChanges()) {
+            return false;
+        }
+        if (reconcileRequested || clock.millis() - lastReconcile >= reconcileMillis) {
+            reconcile();
+        }
+        return true;
+    }
+
+    /*
+     * Apply the tickets which changed since the watermark.
+     */
+    private boolean readChanges() {
+        List<Ticket> changed = source.fetchChangedTickets(
+                new Timestamp(lastModified.getTime() - lookBackMillis), maxID);
+        if (changed == null) {
+            return false;
+        }
+        ArrayList<Ticket> closed = new ArrayList<Ticket>();
+        for (Ticket t : changed) {
+            if (t.isOpen()) {
+                // Rows modified within the look-back are returned again,
+                // they are only replaced if they differ
+                if (store.put(t)) {
+                    changedCount++;
+                }
+            } else {
+                closed.add(t);
+                if (store.remove(t.getID())) {
+                    ticketRemoved = true;
+                    changedCount++;
+                }
+            }
+            advanceWatermark(t);
+        }
+        closedTickets = closed;
+        return true;
+    }
+
+    /*
+     * Re-read every open ticket of the queue, updating the store in place.
+     * Only the first re-read sets the watermark. Later ones leave it where
+     * the changes were read up to: a ticket which closed after those were
+     * read is dropped here, and must still be returned as closed by the
+     * next poll.
+     */
+    private boolean reconcile() {
+        long start = clock.millis();
+        List<Ticket> tickets = source.fetchOpenTickets();
+        if (tickets == null) {
+            return false;
+        }
+        // Slots of the tickets which are still open
+        BitSet open = new BitSet(tickets.size());
+        Timestamp modified = null;
+        int highestID = 0;
+        for (Ticket t : tickets) {
+            if (store.put(t)) {
+                changedCount++;
+            }
+            open.set(store.slotOf(t.getID()));
+            if (t.getModified() != null
+                    && (modified == null || t.getModified().compareTo(modified) > 0)) {
+                modified = t.getModified();
+            }
+            highestID = Math.max(highestID, t.getID());
+        }
+
+        int removed = store.retain(open);
+        ticketRemoved |= removed > 0;
+        changedCount += removed;
+        if (lastModified == null) {
+            lastModified = modified == null ? new Timestamp(0) : modified;
+            maxID = highestID;
+        }
+        lastReconcile = start;
+        reconcileRequested = false;
+        return true;
+    }
+
+    private void advanceWatermark(Ticket t) {
+        if (t.getModified() != null && t.getModified().compareTo(lastModified) > 0) {
+            lastModified = t.getModified();
+        }
+        maxID = Math.max(maxID, t.getID());
+    }
+
+    /**
+     * Force the next poll to re-read the whole queue.
+     */
+    public void requestReconcile() {
+        reconcileRequested = true;
+    }
+
+    /**
+     * Return true if the last poll removed a ticket which was closed or
+     * deleted from the queue.
+     */
+    public boolean ticketRemoved() {
+        return ticketRemoved;
+    }
+
+    /**
+     * Return the number of open tickets which the last poll added, changed
+     * or removed. Zero means the queue looks the same as before.
+     */
+    public int getChangedCount() {
+        return changedCount;
+    }
+
+    /**
+     * Return the tickets which the last poll found closed. Tickets closed
+     * within the look-back are returned by more than one poll.
+     */
+    public List<Ticket> getClosedTickets() {
+        return closedTickets;
+    }
+
+    /**
+     * Return the open tickets of the polled queues. The store is updated in
+     * place by every poll, so it must not be read while a poll is running.
+     */
+    public TicketStore getStore() {
+        return store;
+    }
+}
@@ -0,0 +1,120 @@
+package queuemonitor;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.util.List;
+
+/**
+ * This class reads tickets of one or more queues from the KACE database over
+ * JDBC. The tables are those of the database named in the URL of the
+ * connection (db.url), ORG1 by default.
+ *
+ * @author bshteinfeld
+ */
+public class JdbcTicketSource implements TicketSource {
+
+    private static final long DAY_MILLIS = 24L * 3600 * 1000;
+
+    // Columns read by every ticket query, always in this order
+    private static final String TICKET_COLUMNS =
+            "select HD_TICKET.ID, HD_TICKET.HD_QUEUE_ID, HD_TICKET.TITLE, "
+            + "HD_TICKET.CREATED, HD_TICKET.OWNER_ID, HD_TICKET.HD_CATEGORY_ID, "
+            + "HD_TICKET.HD_STATUS_ID, HD_STATUS.STATE, HD_TICKET.MODIFIED,\n"
+            // Closing time, only for tickets which were not made and closed
+            // at the same time
+            + "case when HD_TICKET.TIME_CLOSED != '0000-00-00 00:00:00'\n"
+            + "and HD_TICKET.TIME_OPENED != '0000-00-00 00:00:00'\n"
+            + "then UNIX_TIMESTAMP(HD_TICKET.TIME_CLOSED) - UNIX_TIMESTAMP(HD_TICKET.CREATED)\n"
+            + "end AS CLOSE_DURATION\n"
+            + "from HD_TICKET\n"
+            + "left join HD_STATUS on HD_TICKET.HD_STATUS_ID = HD_STATUS.ID\n";
+
+    // All open and stalled tickets of the polled queues
+    private final String openTicketsQuery;
+    // Tickets of the polled queues changed since the watermark, in any state
+    // so that tickets which were closed can be dropped from the index
+    private final String changedTicketsQuery;
+    // Closing times of tickets of the polled queues created since the start
+    // of a window of days, in seconds
+    private final String closedTicketsQuery;
+    // IDs of the polled queues, the first parameters of every query
+    private final Object[] queueIDs;
+    private final DBConnection connection;
+    // Clock the window of the closing times ends at
+    private final Clock clock;
+    private final QMMetrics metrics = QMMetrics.getInstance();
+
+    /**
+     * Create a source reading the given queues from the given connection.
+     * All queues are read by the same queries. The windows of the closing
+     * times are counted back from the time of the given clock.
+     */
+    public JdbcTicketSource(DBConnection connection, int[] queues, Clock clock) {
+        this.connection = connection;
+        this.clock = clock;
+        queueIDs = new Object[queues.length];
+        StringBuilder inQueues = new StringBuilder("where HD_TICKET.HD_QUEUE_ID in (");
+        for (int i = 0; i < queues.length; i++) {
+            queueIDs[i] = queues[i];
+            inQueues.append(i == 0 ? "?" : ", ?");
+        }
+        inQueues.append(")\n");
+
+        openTicketsQuery = TICKET_COLUMNS + inQueues
+                // restrict to unclosed tickets
+                + "and HD_STATUS.STATE in ('opened', 'stalled')";
+        changedTicketsQuery = TICKET_COLUMNS + inQueues
+                + "and (HD_TICKET.MODIFIED >= ? or HD_TICKET.ID > ?)";
+        closedTicketsQuery =
+                "select HD_TICKET.ID, HD_TICKET.HD_QUEUE_ID, HD_TICKET.CREATED,\n"
+                + "UNIX_TIMESTAMP(HD_TICKET.TIME_CLOSED) - UNIX_TIMESTAMP(HD_TICKET.CREATED)"
+                + " AS CLOSE_DURATION\n"
+                + "from HD_TICKET\n"
+                + inQueues
+                // Exlcude tickets made and closed at the same time
+                + "and HD_TICKET.TIME_CLOSED != '0000-00-00 00:00:00'\n"
+                + "and HD_TICKET.TIME_OPENED != '0000-00-00 00:00:00'\n"
+                + "and HD_TICKET.CREATED > ?";
+    }
+
+    @Override
+    public List<Ticket> fetchOpenTickets() {
+        long start = System.nanoTime();
+        List<Ticket> tickets = connection.executeQuery(openTicketsQuery,
+                DBConnection.STREAM_RESULTS, TicketRowMapper.READER, queueIDs);
+        return measured(metrics.getOpenQuery(), start, tickets);
+    }
+
+    @Override
+    public List<Ticket> fetchChangedTickets(Timestamp modifiedSince, int afterID) {
+        long start = System.nanoTime();
+        List<Ticket> tickets = connection.executeQuery(changedTicketsQuery,
+                TicketRowMapper.READER, params(modifiedSince, afterID));
+        return measured(metrics.getChangedQuery(), start, tickets);
+    }
+
+    @Override
+    public List<Ticket> fetchClosedTickets(int days) {
+        long start = System.nanoTime();
+        List<Ticket> tickets = connection.executeQuery(closedTicketsQuery,
+                DBConnection.STREAM_RESULTS, TicketRowMapper.READER,
+                params(new Timestamp(clock.millis() - days * DAY_MILLIS)));
+        return measured(metrics.getClosedQuery(), start, tickets);
+    }
+
+    private static List<Ticket> measured(QMMetrics.QueryMetrics query, long start,
+            List<Ticket> tickets) {
+        query.record(start, tickets == null ? -1 : tickets.size());
+        return tickets;
+    }
+
+    /*
+     * Return the queue IDs followed by the other parameters of a query.
+     */
+    private Object[] params(Object... others) {
+        Object[] params = new Object[queueIDs.length + others.length];
+        System.arraycopy(queueIDs, 0, params, 0, queueIDs.length);
+        System.arraycopy(others, 0, params, queueIDs.length, others.length);
+        return params;
+    }
+}
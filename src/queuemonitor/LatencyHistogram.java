@@ -0,0 +1,158 @@
+package queuemonitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records latencies in microseconds into log-linear buckets, the
+ * same layout HdrHistogram uses: each power of two is split into 16 linear
+ * sub-buckets, so every value is kept to within about 6%. Recording does not
+ * allocate and may be done from any thread.
+ *
+ * @author bshteinfeld
+ */
+public class LatencyHistogram {
+
+    // Each power of two is split into 2^SUB_BUCKET_BITS buckets
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values from 2^MAX_BIT microseconds (about 19 hours) on share a bucket
+    private static final int MAX_BIT = 36;
+    private static final int NUM_BUCKETS =
+            SUB_BUCKETS + (MAX_BIT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(NUM_BUCKETS);
+        count = new AtomicLong();
+        sum = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * Record one latency in microseconds. Negative values are recorded as 0.
+     */
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        buckets.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * Record the time since the given System.nanoTime().
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Return the sum of all recorded latencies in microseconds.
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Return the latency in microseconds below which the given percentage
+     * of the recorded latencies fall, 0 if nothing was recorded.
+     */
+    public long percentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return Math.min(bucketValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Return a copy of what was recorded so far, which later recordings do
+     * not change.
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            copy.buckets.set(i, buckets.get(i));
+        }
+        copy.count.set(count.get());
+        copy.sum.set(sum.get());
+        copy.max.set(max.get());
+        return copy;
+    }
+
+    /**
+     * Return what was recorded since the given copy of this histogram was
+     * taken, to give the percentiles of a window of time. The maximum of
+     * the window is only known to within its bucket.
+     *
+     * @param earlier -- an earlier copy() of this histogram
+     */
+    public LatencyHistogram difference(LatencyHistogram earlier) {
+        LatencyHistogram window = new LatencyHistogram();
+        int highest = -1;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            long n = buckets.get(i) - earlier.buckets.get(i);
+            window.buckets.set(i, n);
+            if (n > 0) {
+                highest = i;
+            }
+        }
+        window.count.set(count.get() - earlier.count.get());
+        window.sum.set(sum.get() - earlier.sum.get());
+        window.max.set(highest < 0 ? 0 : Math.min(bucketValue(highest), max.get()));
+        return window;
+    }
+
+    /*
+     * Values below SUB_BUCKETS have a bucket each. Above, the bucket is
+     * given by the highest bit set and the SUB_BUCKET_BITS bits below it.
+     */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int bit = 63 - Long.numberOfLeadingZeros(value);
+        if (bit > MAX_BIT) {
+            return NUM_BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (bit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (bit - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+    }
+
+    /*
+     * Return the highest value which falls in a bucket.
+     */
+    private static long bucketValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int bit = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        int shift = bit - SUB_BUCKET_BITS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
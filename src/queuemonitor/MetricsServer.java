@@ -0,0 +1,75 @@
+package queuemonitor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class serves the metrics of the Queue Monitor over HTTP, in the
+ * Prometheus text format, at /metrics. It uses the HTTP server built into
+ * the JDK and a single daemon thread.
+ *
+ * @author bshteinfeld
+ */
+public class MetricsServer {
+
+    private final HttpServer server;
+
+    private MetricsServer(HttpServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Start serving the given metrics on the given address.
+     *
+     * @return -- the server, null if it could not be started
+     */
+    public static MetricsServer start(String host, int port, final QMMetrics metrics) {
+        HttpServer server;
+        try {
+            server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        } catch (IOException ex) {
+            System.err.println("Error starting metrics server: " + ex.getMessage());
+            return null;
+        }
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = metrics.getPrometheusText().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type",
+                        "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "QueueMonitor metrics");
+                t.setDaemon(true);
+                return t;
+            }
+        }));
+        server.start();
+        return new MetricsServer(server);
+    }
+
+    /**
+     * Return the port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
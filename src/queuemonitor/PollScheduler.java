@@ -0,0 +1,115 @@
+package queuemonitor;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+
+/**
+ * This class decides how long to wait before the next poll of KACE. The
+ * interval starts at the base interval of the current profile (business
+ * hours or off hours) and then adapts:
+ * - while polls find no changes it doubles, up to the maximum of the profile;
+ * - when a poll finds many changed tickets it drops to the minimum;
+ * - when a query fails it doubles from the base interval, up to the maximum;
+ * - when a query is slow, the database is left idle for several times the
+ *   length of the query.
+ *
+ * @author bshteinfeld
+ */
+public class PollScheduler {
+
+    // Shortest wait between polls in milliseconds, used under high churn
+    private final long minInterval;
+    // Base and longest wait during business hours
+    private final long businessInterval;
+    private final long businessMaxInterval;
+    // Base and longest wait outside business hours
+    private final long offHoursInterval;
+    private final long offHoursMaxInterval;
+    // Business hours: first hour, hour after the last, and ISO days of week
+    private final int businessStart;
+    private final int businessEnd;
+    private final boolean[] businessDays;
+    // Changed tickets in one poll above which the queue is busy
+    private final int highChurn;
+    // Queries longer than this many milliseconds are slow
+    private final long slowQuery;
+    // Wait this many times the length of a slow query before the next one
+    private static final int SLOW_QUERY_FACTOR = 5;
+
+    private final Clock clock;
+    // Interval used for the last poll
+    private long interval;
+
+    /**
+     * Create a scheduler with the settings of the given configuration.
+     */
+    public PollScheduler(QMConfig config, Clock clock) {
+        this.clock = clock;
+        minInterval = config.getLong("poll.interval.min", 2000);
+        businessInterval = config.getLong("poll.interval", 5000);
+        businessMaxInterval = config.getLong("poll.interval.max", 30000);
+        offHoursInterval = config.getLong("poll.offhours.interval", 30000);
+        offHoursMaxInterval = config.getLong("poll.offhours.interval.max", 300000);
+        int[] hours = config.getInts("poll.business.hours", new int[] {7, 19});
+        businessStart = hours[0];
+        businessEnd = hours.length > 1 ? hours[1] : 24;
+        businessDays = new boolean[8];
+        for (int day : config.getInts("poll.business.days", new int[] {1, 2, 3, 4, 5})) {
+            if (day >= 1 && day <= 7) {
+                businessDays[day] = true;
+            }
+        }
+        highChurn = (int) config.getLong("poll.churn.high", 5);
+        slowQuery = config.getLong("poll.slow.millis", 2000);
+        interval = businessInterval;
+    }
+
+    /**
+     * Return the shortest wait between two polls in milliseconds.
+     */
+    public long getMinInterval() {
+        return minInterval;
+    }
+
+    /**
+     * Return true if the current time is within business hours.
+     */
+    public boolean isBusinessHours() {
+        LocalDateTime now = LocalDateTime.now(clock);
+        int hour = now.getHour();
+        return businessDays[now.getDayOfWeek().getValue()]
+                && hour >= businessStart && hour < businessEnd;
+    }
+
+    /**
+     * Return the wait in milliseconds before the next poll.
+     *
+     * @param succeeded -- false if the last poll failed
+     * @param changed -- number of tickets the last poll found changed
+     * @param queryMillis -- time the last poll took
+     */
+    public long nextDelay(boolean succeeded, int changed, long queryMillis) {
+        boolean business = isBusinessHours();
+        long base = business ? businessInterval : offHoursInterval;
+        long max = business ? businessMaxInterval : offHoursMaxInterval;
+
+        if (!succeeded) {
+            // Back off from the database while it is failing
+            interval = Math.max(base, interval * 2);
+        } else if (changed >= highChurn) {
+            interval = minInterval;
+        } else if (changed > 0) {
+            interval = base;
+        } else {
+            // Nothing changed, wait longer each time
+            interval = Math.max(base, interval * 2);
+        }
+        interval = Math.min(interval, max);
+
+        // Never take more than a share of the database's time
+        if (queryMillis > slowQuery) {
+            return Math.max(interval, queryMillis * SLOW_QUERY_FACTOR);
+        }
+        return interval;
+    }
+}
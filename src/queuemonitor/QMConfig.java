@@ -0,0 +1,145 @@
+package queuemonitor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * This class holds the settings of the Queue Monitor. They are read from
+ * queuemonitor.properties in the working directory if it exists, and can be
+ * overridden on the command line with --key=value. Every setting has a
+ * default, so the monitor runs without any file as it always did.
+ *
+ * @author bshteinfeld
+ */
+public class QMConfig {
+
+    // Name of the settings file
+    private static final String CONFIG_FILE = "queuemonitor.properties";
+
+    private final Properties props;
+
+    /**
+     * Create settings from the given properties.
+     */
+    public QMConfig(Properties props) {
+        this.props = props;
+    }
+
+    /**
+     * Read the settings file, then apply the command line arguments.
+     */
+    public static QMConfig load(String[] args) {
+        Properties props = new Properties();
+        File file = new File(CONFIG_FILE);
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                props.load(in);
+            } catch (IOException ex) {
+                System.err.println("Error reading " + CONFIG_FILE + ": " + ex.getMessage());
+            }
+        }
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                // a flag such as --headless
+                props.setProperty(arg.substring(2), "true");
+            } else {
+                props.setProperty(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return new QMConfig(props);
+    }
+
+    /**
+     * Return a setting, or the default if it is not set.
+     */
+    public String get(String key, String def) {
+        String value = props.getProperty(key);
+        return value == null ? def : value.trim();
+    }
+
+    /**
+     * Return a numeric setting, or the default if it is not set or invalid.
+     */
+    public long getLong(String key, long def) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            System.err.println("Invalid value for " + key + ": " + value);
+            return def;
+        }
+    }
+
+    /**
+     * Return a setting which is true or false.
+     */
+    public boolean getBoolean(String key, boolean def) {
+        String value = props.getProperty(key);
+        return value == null ? def : Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Return a comma separated list of numbers, or the default.
+     */
+    public int[] getInts(String key, int[] def) {
+        String value = props.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return def;
+        }
+        String[] parts = value.split(",");
+        int[] ints = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                ints[i] = Integer.parseInt(parts[i].trim());
+            }
+        } catch (NumberFormatException ex) {
+            System.err.println("Invalid value for " + key + ": " + value);
+            return def;
+        }
+        return ints;
+    }
+
+    // ---------------------------------------------------------------
+    // Settings of the Queue Monitor
+    // ---------------------------------------------------------------
+
+    /**
+     * Return the KACE queues to poll. Defaults to the IT Helpdesk (1).
+     */
+    public int[] getQueues() {
+        return getInts("queues", new int[] {1});
+    }
+
+    /**
+     * Return the queue shown on each display, one window per entry.
+     * Defaults to one window per polled queue.
+     */
+    public int[] getDisplays() {
+        return getInts("displays", getQueues());
+    }
+
+    /**
+     * Return the name of a queue, shown in the title of its window.
+     */
+    public String getQueueName(int queueID) {
+        return get("queue." + queueID + ".name",
+                queueID == 1 ? "IT Helpdesk" : "Queue " + queueID);
+    }
+
+    /**
+     * Return true if no windows should be shown, only polling.
+     */
+    public boolean isHeadless() {
+        return getBoolean("headless", false);
+    }
+}
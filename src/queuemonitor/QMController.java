@@ -1,273 +1,479 @@
 package queuemonitor;
 
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.SQLException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.time.Clock;
+import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Date;
-import java.util.Timer;
-import java.util.concurrent.Executors;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
 
 /**
  * This class represents the controller for the Queue Monitor. It serves as the
  * bridge between the model (DBConnection) and the view (QueueFrame).
+ * One controller polls every configured queue and publishes a snapshot of
+ * each queue on a SnapshotBus, to which any number of views can subscribe.
  *
  * @author bshteinfeld
  */
 public class QMController {
 
-    // Timer serves to repeatedly re-query the KACE server (with delay)
-    private Timer timer;
+    // Gives the time of the polls
+    private final Clock clock;
+    // Runs the polls of the KACE server
+    private final ScheduledExecutorService executor;
+    // One poll, which schedules the next, and the next scheduled poll
+    private final Runnable pollTask;
+    private ScheduledFuture<?> nextPoll;
+    // System.nanoTime() at which the last poll started
+    private long lastPollStart;
+    // Changes from the binary log of KACE, null if not used, and the
+    // longest time between polls while it is connected (ms)
+    private final BinlogFeed binlog;
+    private final long binlogPollInterval;
+    // True while a poll asked for by the binary log is waiting to run
+    private final AtomicBoolean pollRequested;
+    // Decides how long to wait between polls
+    private final PollScheduler scheduler;
+    // Measurements of the polls
+    private final QMMetrics metrics;
+    // Counts of every snapshot, kept on disk
+    private final HistoryLog history;
+    // Last snapshot of every queue, kept on disk
+    private final SnapshotCache cache;
     private DBConnection connection = null;
-    // ArrayList of the tickets
-    private ArrayList<Ticket> arrivalTickets;
-    private ArrayList<Ticket> deptTickets;
-    private ArrayList<Ticket> delayedTickets;
-    // View of the QMFrame
-    private QueueFrame frame;
+    // Where the tickets are read from
+    private final TicketSource source;
+    // KACE queues which are polled
+    private final int[] queues;
+    // Fans the snapshots of each queue out to the views
+    private final SnapshotBus bus;
+    // Views of the QMFrame, one per display
+    private final List<QueueFrame> frames;
+    // Rules deciding the panel(s) each ticket is shown in
+    private final TicketRules rules;
+    // Sorts the fetched tickets into the panels of the frame
+    private final TicketClassifier classifier;
+    // Times tickets cross an SLA, and the wakeup which rebuilds the panels
+    // when the next one does
+    private final AgingEngine aging;
+    private ScheduledFuture<?> agingWakeup;
+    // Keeps the open tickets of the queues up to date
+    private final IncrementalPoller poller;
+    // Closing times of the tickets of the last 90 days, per queue
+    private final Map<Integer, RollingAggregator> closingTimes;
+    private boolean closingTimesLoaded;
 
-    /**
-     * Creates a QMController. Initialize the connection to the KACE server, the
-     * view, and the Timer.
-     */
-    public QMController() {
-        // Establish connection to database
-        connection = new DBConnection();
-        connection.setUpDBConnection();
-
-        // Initialize the tickets ArrayList
-        arrivalTickets = new ArrayList<Ticket>();
-        deptTickets = new ArrayList<Ticket>();
-        delayedTickets = new ArrayList<Ticket>();
+    // Runs the queries of a poll, and the poll which is running
+    private final QueryRunner queries;
+    private Future<Boolean> pendingPoll;
+    // Time a poll may take before its queries are cancelled (ns)
+    private final long pollDeadline;
 
-        // Initialize the view
-        frame = new QueueFrame();
-        frame.setVisible(true);
+    // Longest window of closing times kept in memory, in days
+    private static final int CLOSING_TIME_DAYS = 90;
+    // Shortest time between two attempts to connect at startup (ms)
+    private static final long MIN_CONNECT_RETRY = 1000;
 
-        // Set up the Timer to re-query the database every 5000 milliseconds
-        ScheduledExecutorService executor =
-                Executors.newScheduledThreadPool(1);
-        executor.scheduleWithFixedDelay(new Runnable() {
-            @Override
-            public void run() {
-                requeryDB();
-            }
-        },
-         1000, 5000, TimeUnit.MILLISECONDS);
+    /**
+     * Creates a QMController. Initialize the views, then connect to the KACE
+     * server and poll it in the background, so the views show straight away
+     * even while KACE is slow or down.
+     *
+     * @param config -- settings of the Queue Monitor
+     */
+    public QMController(QMConfig config) {
+        this(config, Clock.systemDefaultZone());
     }
 
     /**
-     * This method is called by the timer. It re-queries the KACE database.
+     * Creates a QMController whose polls take the time from the given clock,
+     * which the soak test runs faster than real time.
      */
-    public void requeryDB() {
-        try {
-            // ------------------------------------------
-            // Initialize all resultsets from the queries. 
-            // ------------------------------------------
-            
-            ResultSet arrivalTicks = connection.executeQuery(
-                    // only extract id, title, and time created
-                    "select HD_TICKET.TITLE, HD_TICKET.ID, HD_TICKET.CREATED\n"
-                    + "from HD_TICKET	"
-                    + "left join HD_STATUS on HD_TICKET.HD_STATUS_ID = HD_STATUS.ID "
-                    // restrict to IT Helpdesk
-                    + "where HD_TICKET.HD_QUEUE_ID = 1 "
-                    // restrict to unassigned (open) tickets
-                    + "and HD_STATUS.STATE = 'opened'	"
-                    // restrict to 'New Starter' tickets
-                    + "and HD_TICKET.TITLE like '[NEW STARTER]%' "
-                    + "and HD_TICKET.HD_STATUS_ID = 4 "
-                    // sort in order oldest -> newest
-                    + "order by HD_TICKET.ID ASC");
-
-            ResultSet deptTicks = connection.executeQuery(
-                    "select HD_TICKET.ID, HD_TICKET.TITLE, HD_TICKET.CREATED\n"
-                    + "from HD_TICKET "
-                    + "left join HD_STATUS on HD_TICKET.HD_STATUS_ID = HD_STATUS.ID "
-                    + "where HD_TICKET.HD_QUEUE_ID = 1    "
-                    + "and HD_STATUS.STATE = 'opened' "
-                    // restrict to termination tickets
-                    + "and (HD_TICKET.TITLE like '[TERMINATION]%' \n"
-                    + "or HD_TICKET.TITLE like 'New Term Notice%')\n"
-                    + "and HD_TICKET.HD_STATUS_ID = 4 "
-                    + "order by HD_TICKET.CREATED asc");
-
-            // Reteive current time
-            Date currentDate = new Date();
-            Calendar cal = Calendar.getInstance();
-            cal.setTime(currentDate);
-            cal.add(Calendar.DATE, -1);
-            // Calculate current time minus one day, which represents
-            // the cutoff for classifying a ticket as 'delayed'
-            Date delayCutoffDate = cal.getTime();
+    public QMController(QMConfig config, Clock clock) {
+        this.clock = clock;
+        connection = new DBConnection(config.get("db.driver", DBConnection.JDBC_DRIVER),
+                config.get("db.url", DBConnection.DB_URL),
+                config.get("db.user", DBConnection.DB_USER),
+                config.get("db.password", DBConnection.DB_PASS));
+        connection.setQueryTimeout((int) config.getLong("db.query.timeout", 30));
+        connection.setConnectTimeout((int) config.getLong("db.connect.timeout.millis", 5000));
+        queries = new QueryRunner(connection, config.getBoolean("poll.parallel", true));
+        pollDeadline = TimeUnit.MILLISECONDS.toNanos(
+                config.getLong("poll.deadline.millis", 20000));
 
-            // Format cutOffDate in order to be able to compare it to dates
-            // in the resultSet
-            DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
-            String delayCutoffDateString = dateFormat.format(delayCutoffDate);
-
-            ResultSet delayedTicks = connection.executeQuery(
-                    "select HD_TICKET.ID, HD_TICKET.CREATED, HD_TICKET.TITLE \n"
-                    + "from HD_TICKET\n"
-                    + "left join HD_STATUS on HD_TICKET.HD_STATUS_ID = HD_STATUS.ID\n"
-                    + "where HD_TICKET.HD_QUEUE_ID = 1 	\n"
-                    + "and HD_CATEGORY_ID  not in (43,42,53)\n"
-                    + "and HD_STATUS.STATE = 'opened'\n"
-                    + "and HD_TICKET.OWNER_ID = 0 \n"
-                    // exclude starters and terminations
-                    + "and HD_TICKET.TITLE not like '[NEW STARTER]%' \n"
-                    + "and HD_TICKET.TITLE not like '[TERMINATION]%' \n"
-                    + "and HD_TICKET.TITLE not like 'New Term Notice%' \n"
-                    // include only tickets older than one day
-                    + "and (HD_TICKET.CREATED < " + delayCutoffDateString + ") \n"
-                    + "order by HD_TICKET.CREATED asc");
-
-            ResultSet averageClosingTime7Days = connection.executeQuery(
-                    // Caclulate average closing time
-                    "select TIME_FORMAT(SEC_TO_TIME(AVG(UNIX_TIMESTAMP(HD_TICKET.TIME_CLOSED)"
-                    + " - UNIX_TIMESTAMP(HD_TICKET.CREATED))),'%Hh %im %ss') AS AVERAGE_TIME\n"
-                    + "from ORG1.HD_TICKET\n"
-                    + "left join HD_STATUS on HD_TICKET.HD_STATUS_ID = HD_STATUS.ID \n"
-                    + "where HD_TICKET.HD_QUEUE_ID = 1  \n"
-                    // Exlcude tickets made and closed at the same time
-                    + "and HD_TICKET.TIME_CLOSED != '0000-00-00 00:00:00'\n"
-                    + "and HD_TICKET.TIME_OPENED != '0000-00-00 00:00:00'\n"
-                    // Only include past 7 days worth of tickets
-                    + "and  HD_TICKET.CREATED > DATE_SUB(NOW(), INTERVAL 7 DAY)");
+        queues = config.getQueues();
+        rules = loadRules(config);
+        classifier = new TicketClassifier(rules,
+                config.get("stats.breakdown", TicketClassifier.DEFAULT_BREAKDOWN));
+        aging = new AgingEngine(rules);
+        source = new JdbcTicketSource(connection, queues, clock);
+        poller = new IncrementalPoller(source, rules, clock,
+                config.getLong("poll.reconcile.millis",
+                        IncrementalPoller.DEFAULT_RECONCILE_MILLIS),
+                config.getLong("poll.lookback.millis",
+                        IncrementalPoller.DEFAULT_LOOK_BACK_MILLIS));
+        closingTimes = new HashMap<Integer, RollingAggregator>();
+        for (int queueID : queues) {
+            closingTimes.put(queueID, new RollingAggregator(CLOSING_TIME_DAYS));
+        }
+        bus = new SnapshotBus();
+        frames = new ArrayList<QueueFrame>();
 
-            ResultSet averageClosingTime30Days = connection.executeQuery(
-                    "select TIME_FORMAT(SEC_TO_TIME(AVG(UNIX_TIMESTAMP(HD_TICKET.TIME_CLOSED)"
-                    + " - UNIX_TIMESTAMP(HD_TICKET.CREATED))),'%Hh %im %ss') AS AVERAGE_TIME\n"
-                    + "from ORG1.HD_TICKET\n"
-                    + "left join HD_STATUS on HD_TICKET.HD_STATUS_ID = HD_STATUS.ID \n"
-                    + "where HD_TICKET.HD_QUEUE_ID = 1  \n"
-                    + "and HD_TICKET.TIME_CLOSED != '0000-00-00 00:00:00'\n"
-                    + "and HD_TICKET.TIME_OPENED != '0000-00-00 00:00:00'\n"
-                    // Only include past 30 days worth of tickets
-                    + "and  HD_TICKET.CREATED > DATE_SUB(NOW(), INTERVAL 30 DAY)");
+        // Keep the counts of every snapshot on disk for trends
+        history = new HistoryLog(new File(config.get("history.dir", "history")),
+                ZoneId.systemDefault(), (int) config.getLong("history.days", 365));
+        // Keep the last snapshot of every queue on disk, to show it straight
+        // away the next time the monitor starts
+        cache = new SnapshotCache(new File(config.get("cache.dir", "cache")));
+        for (int queueID : queues) {
+            bus.subscribe(queueID, history);
+            bus.subscribe(queueID, cache);
+        }
 
-            ResultSet numUnassignedTicks = connection.executeQuery(
-                    // Count number of tickets
-                    "select count(HD_TICKET.ID) as count\n"
-                    + "from HD_TICKET\n"
-                    + "left join HD_STATUS on HD_TICKET.HD_STATUS_ID = HD_STATUS.ID\n"
-                    + "where HD_TICKET.HD_QUEUE_ID = 1\n"
-                    // restrict to unassigned
-                    + "and HD_TICKET.OWNER_ID = 0");
+        // Publish the measurements of the poll and render loop over JMX, and
+        // over HTTP if a port is configured
+        metrics = QMMetrics.getInstance();
+        metrics.register();
+        int metricsPort = (int) config.getLong("metrics.port", 0);
+        if (metricsPort > 0) {
+            MetricsServer.start(config.get("metrics.host", "127.0.0.1"),
+                    metricsPort, metrics);
+        }
 
-            ResultSet numOpenTicks = connection.executeQuery(
-                    "select count(HD_TICKET.TITLE) as count\n"
-                    + "from HD_TICKET\n"
-                    + "left join HD_STATUS on HD_TICKET.HD_STATUS_ID = HD_STATUS.ID\n"
-                    + "where HD_TICKET.HD_QUEUE_ID = 1\n"
-                    // restrict to unclosed but assigned tickets
-                    + "and (HD_STATUS.STATE = 'opened' or HD_STATUS.STATE = 'stalled')");
+        if (!config.isHeadless()) {
+            createFrames(config);
+        }
 
-            // Print result set
-            /*
-             ResultSetMetaData rsmd = delayedTicks.getMetaData();
-             int columnsNumber = rsmd.getColumnCount();
-             while (delayedTicks.next()) {
-             for (int i = 1; i <= columnsNumber; i++) {
-             if (i > 1) {
-             System.out.print(",  ");
-             }
-             String columnValue = delayedTicks.getString(i);
-             System.out.print(columnValue + " " + rsmd.getColumnName(i));
-             }
-             System.out.println("");
-             }*/
-            
-            
-            // -----------------------------------------------------------------
-            // Convert all resultsets into their respective ArrayList of tickets
-            // -----------------------------------------------------------------
-            
-            while (arrivalTicks.next()) {
-                Ticket at = new Ticket(arrivalTicks);
-                arrivalTickets.add(at);
+        // Re-query the database on its own thread, never on the EDT. Each
+        // poll schedules the next one, after a delay which adapts to how
+        // busy the queue and the database are.
+        scheduler = new PollScheduler(config, clock);
+        ScheduledThreadPoolExecutor pollerThread = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "QueueMonitor poller");
             }
-
-            while (deptTicks.next()) {
-                Ticket dt = new Ticket(deptTicks);
-                if (isSameDay(dt.extractDateFromTitle(), currentDate)) {
-                    deptTickets.add(dt);
+        });
+        // Scheduled polls are dropped on shutdown, a running one finishes
+        pollerThread.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor = pollerThread;
+        pollTask = new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                lastPollStart = start;
+                boolean succeeded;
+                // An exception must not stop the polling
+                try {
+                    succeeded = requeryDB();
+                } catch (RuntimeException ex) {
+                    System.err.println("Error refreshing queue: " + ex);
+                    succeeded = false;
+                }
+                metrics.pollDone(start, succeeded);
+                long delay = scheduler.nextDelay(succeeded, poller.getChangedCount(),
+                        (System.nanoTime() - start) / 1000000);
+                // Changes arrive from the binary log, polls only catch
+                // what it may have missed
+                if (binlog != null && binlog.isConnected()) {
+                    delay = Math.max(delay, binlogPollInterval);
+                }
+                if (!executor.isShutdown()) {
+                    nextPoll = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
                 }
             }
+        };
 
-            while (delayedTicks.next()) {
-                Ticket dt = new Ticket(delayedTicks);
-                delayedTickets.add(dt);
-            }
+        // Optionally poll as soon as the binary log shows a ticket changed,
+        // falling back to scheduled polls without it
+        pollRequested = new AtomicBoolean();
+        binlogPollInterval = config.getLong("binlog.poll.interval.millis", 60000);
+        if (config.getBoolean("binlog.enabled", false)) {
+            binlog = new BinlogFeed(config, new Runnable() {
+                @Override
+                public void run() {
+                    requestPoll();
+                }
+            });
+        } else {
+            binlog = null;
+        }
 
-            // Construct statistics string consisting of results of queries
-            String stats;
+        // Establish connection to database on the poller thread, once the
+        // displays show the cached snapshots, retrying until KACE answers.
+        // The first poll runs as soon as it does. This must come last: the
+        // poller thread reads the fields set above. Only the poller thread
+        // sets nextPoll, the first poll schedules the next one.
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (connection.setUpDBConnection()) {
+                    pollTask.run();
+                    startBinlog();
+                } else if (!executor.isShutdown()) {
+                    nextPoll = executor.schedule(this, Math.max(MIN_CONNECT_RETRY,
+                            connection.getRetryDelay()), TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
 
-            averageClosingTime7Days.next();
+    /*
+     * Start following the binary log once KACE can be reached, on a thread
+     * of its own so the polls are not held up while it connects.
+     */
+    private void startBinlog() {
+        if (binlog == null) {
+            return;
+        }
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                binlog.start();
+            }
+        }, "QueueMonitor binlog");
+        t.setDaemon(true);
+        t.start();
+    }
 
-            stats = "Average closing time (last 7 days): "
-                    + averageClosingTime7Days.getString("AVERAGE_TIME");
+    /*
+     * Poll straight away instead of at the scheduled time, but no sooner
+     * than poll.interval.min after the last poll, so a busy KACE does not
+     * keep the database busy with polls. Requests made before the poll
+     * starts are merged into one.
+     */
+    private void requestPoll() {
+        if (executor.isShutdown() || !pollRequested.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                pollRequested.set(false);
+                long wait = scheduler.getMinInterval() - TimeUnit.NANOSECONDS.toMillis(
+                        System.nanoTime() - lastPollStart);
+                // Only if the scheduled poll has not run and is later, it
+                // then schedules the next one itself
+                if (nextPoll.getDelay(TimeUnit.MILLISECONDS) > wait
+                        && nextPoll.cancel(false)) {
+                    if (wait <= 0) {
+                        pollTask.run();
+                    } else {
+                        nextPoll = executor.schedule(pollTask, wait, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        });
+    }
 
-            averageClosingTime30Days.next();
+    /*
+     * Read the panel rules from the settings, falling back to the usual
+     * panels if they are invalid.
+     */
+    private static TicketRules loadRules(QMConfig config) {
+        try {
+            return new TicketRules(config);
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Invalid panel rules, using the defaults: " + ex.getMessage());
+            return TicketRules.defaults();
+        }
+    }
 
-            stats += "\nAverage closing time (last 30 days): "
-                    + averageClosingTime30Days.getString("AVERAGE_TIME");
+    /*
+     * Create one frame per configured display, each on its own screen if
+     * there are enough, and subscribe it to its queue.
+     */
+    private void createFrames(final QMConfig config) {
+        final GraphicsDevice[] screens =
+                GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices();
+        final int[] displays = config.getDisplays();
+        final QueueSnapshot[] cached = new QueueSnapshot[displays.length];
+        for (int i = 0; i < displays.length; i++) {
+            cached[i] = cache.load(displays[i]);
+        }
+        // Initialize the views on the Event Dispatch Thread
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < displays.length; i++) {
+                        GraphicsDevice screen = screens[i % screens.length];
+                        QueueFrame frame = new QueueFrame(
+                                config.getQueueName(displays[i]),
+                                rules.getPanels(),
+                                screen.getDefaultConfiguration());
+                        if (cached[i] != null) {
+                            frame.showCachedSnapshot(cached[i]);
+                        }
+                        frame.setVisible(true);
+                        frames.add(frame);
+                    }
+                }
+            });
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException ex) {
+            throw new IllegalStateException("Unable to create the view", ex.getCause());
+        }
+        for (int i = 0; i < frames.size(); i++) {
+            bus.subscribe(displays[i], new SnapshotPublisher(frames.get(i)));
+        }
+    }
 
-            numUnassignedTicks.next();
+    /**
+     * This method is called by the timer. It re-queries the KACE database.
+     * Only the tickets which changed since the last poll are fetched, for all
+     * queues at once, then the open tickets of each queue are classified in
+     * memory, so every panel is built from the same snapshot. Closing times
+     * are kept up to date from the tickets which were closed. The snapshot
+     * of each queue is then published to its views.
+     * Queries which are independent run at the same time, and are cancelled
+     * if they have not finished by the deadline of the poll.
+     *
+     * @return -- false if a query failed
+     */
+    public boolean requeryDB() {
+        Date currentDate = new Date(clock.millis());
+        // The poller must not be used while a poll which was given up on
+        // is still running
+        if (pendingPoll != null && !pendingPoll.isDone()) {
+            System.err.println("Previous poll still running, skipping this one.");
+            return false;
+        }
+        long deadline = System.nanoTime() + pollDeadline;
+        pendingPoll = queries.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return poller.poll();
+            }
+        });
+        // The closing times are loaded once, next to the first poll, then
+        // only updated with the tickets which were just closed
+        Future<List<Ticket>> closedQuery = null;
+        if (!closingTimesLoaded) {
+            closedQuery = queries.submit(new Callable<List<Ticket>>() {
+                @Override
+                public List<Ticket> call() {
+                    return source.fetchClosedTickets(CLOSING_TIME_DAYS);
+                }
+            });
+        }
 
-            stats += "\nNumber of unassigned tickets in queue: " 
-                    + numUnassignedTicks.getString("count");
+        Boolean polled = queries.await(pendingPoll, deadline);
+        if (closedQuery != null) {
+            List<Ticket> closed = queries.await(closedQuery, deadline);
+            if (closed != null) {
+                recordClosingTimes(closed);
+                closingTimesLoaded = true;
+            }
+        }
+        if (polled == null || !polled) {
+            return false;
+        }
+        // Without the closing times the snapshots are still published,
+        // showing N/A until they are loaded by a later poll
+        recordClosingTimes(poller.getClosedTickets());
+        publishSnapshots(currentDate);
+        return true;
+    }
 
-            numOpenTicks.next();
+    /*
+     * Classify the tickets of every queue and publish the snapshots, then
+     * wake up again when the next ticket crosses an SLA. Only called on the
+     * poller thread.
+     */
+    private void publishSnapshots(Date currentDate) {
+        long now = currentDate.getTime() / 1000;
+        long start = System.nanoTime();
+        for (int queueID : queues) {
+            RollingAggregator aggregator = closingTimes.get(queueID);
+            QueueSnapshot snapshot = classifier.classify(queueID,
+                    poller.getStore(), aggregator.average(7, now),
+                    aggregator.average(30, now), currentDate);
+            // Update the textAreas with the new tickets
+            bus.publish(snapshot);
+        }
+        metrics.getSnapshotBuild().recordSince(start);
 
-            stats += "\nNumber of open tickets in queue: " 
-                    + numOpenTicks.getString("count");
+        aging.update(poller.getStore(), now);
+        long next = aging.nextDeadline(poller.getStore(), now);
+        if (agingWakeup != null) {
+            agingWakeup.cancel(false);
+            agingWakeup = null;
+        }
+        if (next != Long.MAX_VALUE && !executor.isShutdown()) {
+            agingWakeup = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // The store must not be read while a poll is running
+                    if (pendingPoll != null && !pendingPoll.isDone()) {
+                        return;
+                    }
+                    try {
+                        publishSnapshots(new Date(clock.millis()));
+                    } catch (RuntimeException ex) {
+                        System.err.println("Error refreshing queue: " + ex);
+                    }
+                }
+            }, next * 1000 - clock.millis(), TimeUnit.MILLISECONDS);
+        }
+    }
 
-            // Update the textArea with the new tickets
-            frame.updateArrivals(arrivalTickets);
-            frame.updateDeptartures(deptTickets);
-            frame.updateDelays(delayedTickets);
-            frame.updateStats(stats);
-            
-            // Re-initialize arraylists of tickets
-            arrivalTickets = new ArrayList<Ticket>();
-            deptTickets = new ArrayList<Ticket>();
-            delayedTickets = new ArrayList<Ticket>();
-            
-            // Close all resultSets
-            arrivalTicks.close();
-            deptTicks.close();
-            delayedTicks.close();
-            averageClosingTime30Days.close();
-            averageClosingTime7Days.close();
-            numUnassignedTicks.close();
-            numOpenTicks.close();
-        } catch (SQLException ex) {
-            System.err.println("Error executing query");
+    private void recordClosingTimes(List<Ticket> closed) {
+        for (Ticket t : closed) {
+            RollingAggregator aggregator = closingTimes.get(t.getQueueID());
+            if (aggregator != null) {
+                aggregator.record(t.getID(), t.getCreatedSeconds(),
+                        t.getCloseDuration());
+            }
         }
     }
 
-    /*
-     * Returns true if two Date objects represent the same day. False otherwise.
+    /**
+     * Return the bus on which the snapshots of every queue are published.
      */
-    private boolean isSameDay(Date date1, Date date2) {
-        Calendar cal1 = Calendar.getInstance();
-        Calendar cal2 = Calendar.getInstance();
-        cal1.setTime(date1);
-        cal2.setTime(date2);
-        return cal1.get(Calendar.YEAR) == cal2.get(Calendar.YEAR)
-                && cal1.get(Calendar.DAY_OF_YEAR) == cal2.get(Calendar.DAY_OF_YEAR);
+    public SnapshotBus getBus() {
+        return bus;
     }
 
     /**
-     * Close the connection to the database.
+     * Return the log of the counts of every snapshot.
+     */
+    public HistoryLog getHistory() {
+        return history;
+    }
+
+    /**
+     * Stop polling and close the connection to the database.
      */
     public void closeConnection() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(TimeUnit.NANOSECONDS.toMillis(pollDeadline),
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (binlog != null) {
+            binlog.close();
+        }
+        queries.shutdown();
         connection.closeDBConnection();
+        history.close();
     }
 }
@@ -0,0 +1,317 @@
+package queuemonitor;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class collects the measurements of the poll and render loop: how long
+ * KACE takes to answer each query, how long mapping the rows and building
+ * the snapshots takes, how long a snapshot waits for the EDT and how long
+ * the frame takes to show it, and how often connections are re-opened or
+ * polls fail. There is one instance per JVM, shared by every part of the
+ * monitor. It can be read over JMX or as Prometheus text.
+ *
+ * @author bshteinfeld
+ */
+public class QMMetrics implements QMMetricsMBean {
+
+    private static final QMMetrics INSTANCE = new QMMetrics();
+    // Name of the MBean
+    private static final String OBJECT_NAME = "queuemonitor:type=Metrics";
+
+    /**
+     * Latency, row count and failures of one kind of query.
+     */
+    public static class QueryMetrics {
+        private final String name;
+        private final LatencyHistogram latency;
+        private final AtomicLong rows;
+        private final AtomicLong errors;
+
+        QueryMetrics(String name) {
+            this.name = name;
+            latency = new LatencyHistogram();
+            rows = new AtomicLong();
+            errors = new AtomicLong();
+        }
+
+        /**
+         * Record a query started at the given System.nanoTime() which
+         * returned the given number of rows, or failed if rows is negative.
+         */
+        public void record(long startNanos, int rows) {
+            latency.recordSince(startNanos);
+            if (rows < 0) {
+                errors.incrementAndGet();
+            } else {
+                this.rows.addAndGet(rows);
+            }
+        }
+    }
+
+    // Ticket queries, timed from the start of the query to the last row mapped
+    private final QueryMetrics openQuery;
+    private final QueryMetrics changedQuery;
+    private final QueryMetrics closedQuery;
+    // Time until the database returned the first rows, and time spent
+    // reading and mapping the rows, for every query
+    private final LatencyHistogram execute;
+    private final LatencyHistogram mapping;
+    // Time to classify the tickets of every queue of one poll
+    private final LatencyHistogram snapshotBuild;
+    // Time a snapshot waited for the EDT, and time to show it on the frame
+    private final LatencyHistogram edtWait;
+    private final LatencyHistogram render;
+    // Whole polls, from the first query to the last snapshot published
+    private final LatencyHistogram poll;
+    private final AtomicLong polls;
+    // Polls which failed, leaving the displays as they were
+    private final AtomicLong pollsSkipped;
+    // Connections opened to replace dropped ones, and failed attempts
+    private final AtomicLong reconnects;
+    private final AtomicLong connectFailures;
+    // Snapshots replaced by a newer one before the EDT showed them
+    private final AtomicLong snapshotsCoalesced;
+
+    private QMMetrics() {
+        openQuery = new QueryMetrics("open");
+        changedQuery = new QueryMetrics("changed");
+        closedQuery = new QueryMetrics("closed");
+        execute = new LatencyHistogram();
+        mapping = new LatencyHistogram();
+        snapshotBuild = new LatencyHistogram();
+        edtWait = new LatencyHistogram();
+        render = new LatencyHistogram();
+        poll = new LatencyHistogram();
+        polls = new AtomicLong();
+        pollsSkipped = new AtomicLong();
+        reconnects = new AtomicLong();
+        connectFailures = new AtomicLong();
+        snapshotsCoalesced = new AtomicLong();
+    }
+
+    /**
+     * Return the metrics of this JVM.
+     */
+    public static QMMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Make the metrics visible over JMX.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException ex) {
+            System.err.println("Error registering metrics MBean: " + ex.getMessage());
+        }
+    }
+
+    public QueryMetrics getOpenQuery() {
+        return openQuery;
+    }
+
+    public QueryMetrics getChangedQuery() {
+        return changedQuery;
+    }
+
+    public QueryMetrics getClosedQuery() {
+        return closedQuery;
+    }
+
+    public LatencyHistogram getExecute() {
+        return execute;
+    }
+
+    public LatencyHistogram getMapping() {
+        return mapping;
+    }
+
+    public LatencyHistogram getSnapshotBuild() {
+        return snapshotBuild;
+    }
+
+    public LatencyHistogram getEdtWait() {
+        return edtWait;
+    }
+
+    public LatencyHistogram getRender() {
+        return render;
+    }
+
+    /**
+     * Return the latencies of whole polls.
+     */
+    public LatencyHistogram getPoll() {
+        return poll;
+    }
+
+    /**
+     * Record a whole poll started at the given System.nanoTime().
+     */
+    public void pollDone(long startNanos, boolean succeeded) {
+        poll.recordSince(startNanos);
+        polls.incrementAndGet();
+        if (!succeeded) {
+            pollsSkipped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Count a connection opened to replace one which was dropped.
+     */
+    public void reconnected() {
+        reconnects.incrementAndGet();
+    }
+
+    public void connectFailed() {
+        connectFailures.incrementAndGet();
+    }
+
+    public void snapshotCoalesced() {
+        snapshotsCoalesced.incrementAndGet();
+    }
+
+    @Override
+    public long getPolls() {
+        return polls.get();
+    }
+
+    @Override
+    public long getPollsSkipped() {
+        return pollsSkipped.get();
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    @Override
+    public long getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    @Override
+    public long getQueryErrors() {
+        return openQuery.errors.get() + changedQuery.errors.get()
+                + closedQuery.errors.get();
+    }
+
+    @Override
+    public long getRowsRead() {
+        return openQuery.rows.get() + changedQuery.rows.get() + closedQuery.rows.get();
+    }
+
+    @Override
+    public long getQueryP50Micros() {
+        return execute.percentile(50);
+    }
+
+    @Override
+    public long getQueryP99Micros() {
+        return execute.percentile(99);
+    }
+
+    @Override
+    public long getQueryMaxMicros() {
+        return execute.getMax();
+    }
+
+    @Override
+    public long getMappingP99Micros() {
+        return mapping.percentile(99);
+    }
+
+    @Override
+    public long getSnapshotBuildP99Micros() {
+        return snapshotBuild.percentile(99);
+    }
+
+    @Override
+    public long getEdtWaitP99Micros() {
+        return edtWait.percentile(99);
+    }
+
+    @Override
+    public long getRenderP99Micros() {
+        return render.percentile(99);
+    }
+
+    @Override
+    public long getSnapshotsCoalesced() {
+        return snapshotsCoalesced.get();
+    }
+
+    @Override
+    public String getPrometheusText() {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# TYPE queuemonitor_query_seconds summary\n");
+        for (QueryMetrics q : new QueryMetrics[] {openQuery, changedQuery, closedQuery}) {
+            summary(sb, "queuemonitor_query_seconds", "{query=\"" + q.name + "\"",
+                    q.latency);
+        }
+        sb.append("# TYPE queuemonitor_query_rows_total counter\n");
+        for (QueryMetrics q : new QueryMetrics[] {openQuery, changedQuery, closedQuery}) {
+            sb.append("queuemonitor_query_rows_total{query=\"").append(q.name)
+                    .append("\"} ").append(q.rows.get()).append('\n');
+        }
+        sb.append("# TYPE queuemonitor_query_errors_total counter\n");
+        for (QueryMetrics q : new QueryMetrics[] {openQuery, changedQuery, closedQuery}) {
+            sb.append("queuemonitor_query_errors_total{query=\"").append(q.name)
+                    .append("\"} ").append(q.errors.get()).append('\n');
+        }
+        summary(sb, "queuemonitor_jdbc_execute_seconds", null, execute);
+        summary(sb, "queuemonitor_jdbc_mapping_seconds", null, mapping);
+        summary(sb, "queuemonitor_snapshot_build_seconds", null, snapshotBuild);
+        summary(sb, "queuemonitor_edt_wait_seconds", null, edtWait);
+        summary(sb, "queuemonitor_render_seconds", null, render);
+        summary(sb, "queuemonitor_poll_seconds", null, poll);
+        counter(sb, "queuemonitor_polls_total", polls.get());
+        counter(sb, "queuemonitor_polls_skipped_total", pollsSkipped.get());
+        counter(sb, "queuemonitor_reconnects_total", getReconnects());
+        counter(sb, "queuemonitor_connect_failures_total", connectFailures.get());
+        counter(sb, "queuemonitor_snapshots_coalesced_total", snapshotsCoalesced.get());
+        return sb.toString();
+    }
+
+    /*
+     * Append a histogram as a summary. Labels is null or an open label set
+     * such as {query="open" which is completed here.
+     */
+    private static void summary(StringBuilder sb, String name, String labels,
+            LatencyHistogram h) {
+        if (labels == null) {
+            sb.append("# TYPE ").append(name).append(" summary\n");
+        }
+        String open = labels == null ? "{" : labels + ",";
+        String plain = labels == null ? "" : labels + "}";
+        for (double q : new double[] {50, 90, 99}) {
+            sb.append(name).append(open).append("quantile=\"")
+                    .append(q / 100).append("\"} ")
+                    .append(seconds(h.percentile(q))).append('\n');
+        }
+        sb.append(name).append("_sum").append(plain).append(' ')
+                .append(seconds(h.getSum())).append('\n');
+        sb.append(name).append("_count").append(plain).append(' ')
+                .append(h.getCount()).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, long value) {
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1e6);
+    }
+}
@@ -0,0 +1,43 @@
+package queuemonitor;
+
+/**
+ * Management interface of QMMetrics, shown under queuemonitor:type=Metrics
+ * in JConsole or any other JMX client. Latencies are in microseconds.
+ *
+ * @author bshteinfeld
+ */
+public interface QMMetricsMBean {
+
+    long getPolls();
+
+    long getPollsSkipped();
+
+    long getReconnects();
+
+    long getConnectFailures();
+
+    long getQueryErrors();
+
+    long getRowsRead();
+
+    long getQueryP50Micros();
+
+    long getQueryP99Micros();
+
+    long getQueryMaxMicros();
+
+    long getMappingP99Micros();
+
+    long getSnapshotBuildP99Micros();
+
+    long getEdtWaitP99Micros();
+
+    long getRenderP99Micros();
+
+    long getSnapshotsCoalesced();
+
+    /**
+     * Return every metric in the Prometheus text format.
+     */
+    String getPrometheusText();
+}
@@ -0,0 +1,103 @@
+package queuemonitor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class runs the queries of one poll next to each other, each on its
+ * own pooled connection, and gives up on them when the poll's deadline has
+ * passed. Queries run on virtual threads when the JVM has them, otherwise
+ * on a pool of daemon threads.
+ *
+ * @author bshteinfeld
+ */
+public class QueryRunner {
+
+    // Time a cancelled query gets to stop before it is left behind (ns)
+    private static final long CANCEL_GRACE = TimeUnit.SECONDS.toNanos(5);
+
+    private final ExecutorService executor;
+    private final DBConnection connection;
+
+    /**
+     * Create a runner for queries on the given connection.
+     *
+     * @param parallel -- false to run the queries one after another
+     */
+    public QueryRunner(DBConnection connection, boolean parallel) {
+        this.connection = connection;
+        ThreadFactory threads = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "QueueMonitor query");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        if (!parallel) {
+            executor = Executors.newSingleThreadExecutor(threads);
+        } else {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            executor = virtual != null ? virtual : Executors.newCachedThreadPool(threads);
+        }
+    }
+
+    /*
+     * Executors.newVirtualThreadPerTaskExecutor() is only in newer JVMs,
+     * so it is looked up by name.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Start a query.
+     */
+    public <T> Future<T> submit(Callable<T> query) {
+        return executor.submit(query);
+    }
+
+    /**
+     * Wait for a query to finish until the deadline, a System.nanoTime().
+     * When the deadline passes, every running query is cancelled.
+     *
+     * @return -- the result of the query, null if it failed, timed out, or
+     * is still running after being cancelled
+     */
+    public <T> T await(Future<T> query, long deadline) {
+        try {
+            try {
+                return query.get(Math.max(0, deadline - System.nanoTime()),
+                        TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                System.err.println("Query took too long, cancelling it.");
+                connection.cancelRunning();
+                // the query fails once cancelled, unless it just finished
+                return query.get(CANCEL_GRACE, TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException ex) {
+            System.err.println("Cancelled query did not stop.");
+        } catch (ExecutionException ex) {
+            System.err.println("Error executing query: " + ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -3,11 +3,17 @@ package queuemonitor;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Frame;
+import java.awt.GraphicsConfiguration;
 import java.awt.GridLayout;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 import javax.swing.BorderFactory;
 import javax.swing.JFrame;
-import javax.swing.JTextArea;
 import javax.swing.border.Border;
 
 /**
@@ -16,132 +22,180 @@ import javax.swing.border.Border;
  */
 public class QueueFrame extends JFrame{
 
-    // Text Areas
-    private JTextArea arrivalsTA;
-    private JTextArea delaysTA;
-    private JTextArea deptsTA;
-    private JTextArea statsTA;
-    // Font for Arrivals, Deptartures, and Delays
+    // Panels shown, in order, each with its board
+    private final List<TicketRules.Panel> panels;
+    private final DepartureBoard[] panelBoards;
+    private DepartureBoard statsBoard;
+    // Font for the panels, such as Arrivals, Deptartures, and Delays
     private final Font nonStatsFont;
     // Font for Statistics (Exchange Rates)
     private final Font statsFont;
     private final Color green;
     private final Color red;
+    // Background of the statistics while they are out of date
+    private final Color amber;
+    // Turns tickets into lines of text, caching the line of each ticket
+    private final TicketFormatter formatter;
+    // Re-used to collect the lines shown on a board
+    private final ArrayList<String> lines;
+    // Tickets and statistics currently shown, null until the first update
+    private final List<List<Ticket>> shownTickets;
+    private String shownStats;
+    // Time of the cached snapshot shown, null once fresh data has arrived
+    private Date staleSince;
     
     /**
      * Create a new QueueFrame.
+     *
+     * @param queueName -- name of the queue shown, e.g. "IT Helpdesk"
+     * @param panels -- panels to show, in order
+     * @param screen -- configuration of the display to show the frame on
      */
-    public QueueFrame() {
+    public QueueFrame(String queueName, List<TicketRules.Panel> panels,
+            GraphicsConfiguration screen) {
+        super(screen);
+        setTitle(queueName + " - Queue Monitor");
+        // Place the frame on its display before it is maximized
+        setBounds(screen.getBounds());
         nonStatsFont = new Font("Arial", Font.PLAIN, 50);
         statsFont = new Font("Arial", Font.PLAIN, 40);
         green = new Color(70, 165, 70);
         red = new Color(246, 98, 98);
+        amber = new Color(240, 180, 60);
+        formatter = new TicketFormatter();
+        lines = new ArrayList<String>();
+        this.panels = panels;
+        panelBoards = new DepartureBoard[panels.size()];
+        shownTickets = new ArrayList<List<Ticket>>(panels.size());
+        for (int i = 0; i < panels.size(); i++) {
+            shownTickets.add(null);
+        }
         initComponents();
     }
 
     /**
      * Initialize components in the frame.
-     * Set up text areas with GridLayout.
+     * Set up departure boards with GridLayout.
      */
     private void initComponents() {
         setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
-        arrivalsTA = new JTextArea();
-        delaysTA = new JTextArea();
-        deptsTA = new JTextArea();
-        statsTA = new JTextArea();
+        statsBoard = new DepartureBoard(statsFont);
         
-        // 2 by 2 grid
-        GridLayout layout = new GridLayout(2, 2);
+        // 2 rows, the statistics after the last panel
+        GridLayout layout = new GridLayout(2, (panels.size() + 2) / 2);
         setLayout(layout);
         
-        // Set textareas to correct font
-        
-        arrivalsTA.setFont(nonStatsFont);
-        arrivalsTA.setText("Arrivals:\n");
-        delaysTA.setFont(nonStatsFont);
-        delaysTA.setText("Delays:\n");
-        deptsTA.setFont(nonStatsFont);
-        deptsTA.setText("Departures:\n");
-        statsTA.setFont(statsFont);
-        statsTA.setText("Statistics:\n");
-        
-        // Create black border around each text area
+        // Create black border around each board
         Border border = BorderFactory.createLineBorder(Color.BLACK);
         Border blackBorder = BorderFactory.createCompoundBorder(border, 
             BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        arrivalsTA.setBorder(blackBorder);
-        delaysTA.setBorder(blackBorder);
-        deptsTA.setBorder(blackBorder);
-        statsTA.setBorder(blackBorder);
         
-        // Add textareas into gridlayout
-        add(arrivalsTA);
-        add(delaysTA);
-        add(deptsTA);
-        add(statsTA);
+        // Create boards with the correct font and add them into gridlayout.
+        // Fonts never change after this
+        for (int i = 0; i < panelBoards.length; i++) {
+            DepartureBoard board = new DepartureBoard(nonStatsFont);
+            board.show(Collections.singletonList(panels.get(i).getHeading() + ":"),
+                    Color.WHITE);
+            board.setBorder(blackBorder);
+            add(board);
+            panelBoards[i] = board;
+        }
+        statsBoard.show(Collections.singletonList("Statistics:"), Color.WHITE);
+        statsBoard.setBorder(blackBorder);
+        add(statsBoard);
         
-        setTitle("IT Helpdesk - Queue Monitor");
         // full screen
         setExtendedState(Frame.MAXIMIZED_BOTH);
         setVisible(true);
     }
     
+    /**
+     * Show a snapshot of the queue. Must be called on the Event Dispatch
+     * Thread.
+     */
+    public void showSnapshot(QueueSnapshot snapshot) {
+        show(snapshot, null);
+    }
+
+    /**
+     * Show a snapshot read from the cache on disk, marking the statistics
+     * as out of date until the next call to showSnapshot. Must be called on
+     * the Event Dispatch Thread.
+     */
+    public void showCachedSnapshot(QueueSnapshot snapshot) {
+        show(snapshot, snapshot.getTimeTaken());
+    }
+
+    private void show(QueueSnapshot snapshot, Date stale) {
+        staleSince = stale;
+        for (int i = 0; i < panelBoards.length; i++) {
+            updatePanel(i, snapshot.getPanel(panels.get(i).getName()));
+        }
+        updateStats(snapshot.getStats());
+    }
+
     /*
-    * Converts an ArrayList of tickets to a String
+    * Returns true if two lists of tickets would be displayed the same way.
     */
-    private String ticksToString(ArrayList<Ticket> ticks) {
-        if (ticks.isEmpty()) {
-            return "";
+    private static boolean sameTickets(List<Ticket> shown, List<Ticket> ticks) {
+        if (shown == null || shown.size() != ticks.size()) {
+            return false;
         }
-        String tickStr = "";
-        for (Ticket t : ticks) {
-            tickStr += t + "\n";
+        for (int i = 0; i < ticks.size(); i++) {
+            Ticket t1 = shown.get(i);
+            Ticket t2 = ticks.get(i);
+            if (t1 != t2 && (t1.getID() != t2.getID()
+                    || !sameDate(t1.getTimeCreated(), t2.getTimeCreated()))) {
+                return false;
+            }
         }
-        return tickStr.substring(0, tickStr.length() - 1);
+        return true;
     }
-    
-    // ----------------------------------------------------------------
-    // The following four methods update their corresponding textareas.
-    // ----------------------------------------------------------------
-    
-    public void updateArrivals(ArrayList<Ticket> ticks) {
-        arrivalsTA.setText("Arrivals:\n\n" + ticksToString(ticks));
-        if (ticks.isEmpty()) {
-            arrivalsTA.setBackground(green);
-        } else {
-            arrivalsTA.setBackground(red);
-        }
-        arrivalsTA.setFont(nonStatsFont);
-        arrivalsTA.setEditable(false);
+
+    private static boolean sameDate(LocalDateTime d1, LocalDateTime d2) {
+        return d1 == null ? d2 == null : d1.equals(d2);
     }
 
-    public void updateDeptartures(ArrayList<Ticket> ticks) {
-        deptsTA.setText("Departures:\n\n" + ticksToString(ticks));
-        if (ticks.isEmpty()) {
-            deptsTA.setBackground(green);
-        } else {
-            deptsTA.setBackground(red);
+    /*
+    * Show a list of tickets on a board under a heading, red if there are any
+    * tickets and green otherwise. Only called when the tickets have changed.
+    */
+    private void showTickets(DepartureBoard board, String heading, List<Ticket> ticks) {
+        lines.clear();
+        lines.add(heading);
+        lines.add("");
+        for (Ticket t : ticks) {
+            lines.add(formatter.line(t));
         }
-        deptsTA.setFont(nonStatsFont);
-        deptsTA.setEditable(false);
+        board.show(lines, ticks.isEmpty() ? green : red);
     }
 
-    public void updateDelays(ArrayList<Ticket> ticks) {
-        delaysTA.setText("Delays:\n\n" + ticksToString(ticks));
-        if (ticks.isEmpty()) {
-            delaysTA.setBackground(green);
-        } else {
-            delaysTA.setBackground(red);
+    // ----------------------------------------------------------------
+    // The following two methods update their corresponding boards,
+    // leaving them untouched if nothing they show has changed.
+    // ----------------------------------------------------------------
+
+    public void updatePanel(int index, List<Ticket> ticks) {
+        if (!sameTickets(shownTickets.get(index), ticks)) {
+            showTickets(panelBoards[index], panels.get(index).getHeading() + ":", ticks);
+            shownTickets.set(index, ticks);
         }
-        delaysTA.setFont(nonStatsFont);
-        delaysTA.setEditable(false);
     }
 
     public void updateStats(String string) {
-        statsTA.setText("Exchange Rates:\n\n" + string);
-        statsTA.setFont(statsFont);
-        statsTA.setBackground(green);
-        statsTA.setEditable(false);
+        if (staleSince != null) {
+            string += String.format(Locale.US, "\n\nLast updated %1$ta %1$tb %1$td"
+                    + " %1$tH:%1$tM, waiting for KACE", staleSince);
+        }
+        if (string.equals(shownStats)) {
+            return;
+        }
+        lines.clear();
+        lines.add("Exchange Rates:");
+        lines.add("");
+        lines.addAll(Arrays.asList(string.split("\n", -1)));
+        statsBoard.show(lines, staleSince == null ? green : amber);
+        shownStats = string;
     }
 
 }
@@ -7,6 +7,6 @@ package queuemonitor;
 public class QueueMonitor {
     
     public static void main(String[] args) {      
-        QMController controller = new QMController();
+        QMController controller = new QMController(QMConfig.load(args));
     }
 }
\ No newline at end of file
@@ -0,0 +1,139 @@
+package queuemonitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * This class represents one consistent view of the helpdesk queue, built from
+ * a single poll of the KACE database. A snapshot is immutable once created.
+ *
+ * @author bshteinfeld
+ */
+public class QueueSnapshot {
+
+    // KACE queue the snapshot is of
+    private final int queueID;
+    // Time the snapshot was taken
+    private final Date timeTaken;
+    // Names of the panels, and the tickets shown in each
+    private final List<String> panelNames;
+    private final List<List<Ticket>> panels;
+    // Counts of tickets in the queue
+    private final int numUnassigned;
+    private final int numOpen;
+    // Average closing time in seconds, negative if there were no closed tickets
+    private final long averageClosingTime7Days;
+    private final long averageClosingTime30Days;
+    // Further statistics from the counts of the open tickets, one per
+    // line, may be empty
+    private final String breakdown;
+
+    /**
+     * Create a new snapshot. The ticket lists are copied.
+     *
+     * @param panelNames -- names of the panels, such as "arrivals"
+     * @param panels -- tickets of each panel, in the same order
+     * @param breakdown -- further statistics shown, one per line
+     */
+    public QueueSnapshot(int queueID, Date timeTaken, List<String> panelNames,
+            List<? extends List<Ticket>> panels, int numUnassigned,
+            int numOpen, long averageClosingTime7Days,
+            long averageClosingTime30Days, String breakdown) {
+        this.queueID = queueID;
+        this.timeTaken = timeTaken;
+        this.panelNames = Collections.unmodifiableList(new ArrayList<String>(panelNames));
+        ArrayList<List<Ticket>> copies = new ArrayList<List<Ticket>>(panels.size());
+        for (List<Ticket> tickets : panels) {
+            copies.add(Collections.unmodifiableList(new ArrayList<Ticket>(tickets)));
+        }
+        this.panels = Collections.unmodifiableList(copies);
+        this.numUnassigned = numUnassigned;
+        this.numOpen = numOpen;
+        this.averageClosingTime7Days = averageClosingTime7Days;
+        this.averageClosingTime30Days = averageClosingTime30Days;
+        this.breakdown = breakdown;
+    }
+
+    public int getQueueID() {
+        return queueID;
+    }
+
+    public Date getTimeTaken() {
+        return timeTaken;
+    }
+
+    public List<String> getPanelNames() {
+        return panelNames;
+    }
+
+    public List<List<Ticket>> getPanels() {
+        return panels;
+    }
+
+    /**
+     * Return the tickets of a panel, empty if there is no such panel.
+     */
+    public List<Ticket> getPanel(String name) {
+        int i = panelNames.indexOf(name);
+        return i < 0 ? Collections.<Ticket>emptyList() : panels.get(i);
+    }
+
+    public List<Ticket> getArrivals() {
+        return getPanel("arrivals");
+    }
+
+    public List<Ticket> getDepartures() {
+        return getPanel("departures");
+    }
+
+    public List<Ticket> getDelays() {
+        return getPanel("delays");
+    }
+
+    public int getNumUnassigned() {
+        return numUnassigned;
+    }
+
+    public int getNumOpen() {
+        return numOpen;
+    }
+
+    public long getAverageClosingTime7Days() {
+        return averageClosingTime7Days;
+    }
+
+    public long getAverageClosingTime30Days() {
+        return averageClosingTime30Days;
+    }
+
+    public String getBreakdown() {
+        return breakdown;
+    }
+
+    /**
+     * Return the statistics ("Exchange Rates") string for this snapshot.
+     */
+    public String getStats() {
+        String stats = "Average closing time (last 7 days): "
+                + formatDuration(averageClosingTime7Days)
+                + "\nAverage closing time (last 30 days): "
+                + formatDuration(averageClosingTime30Days)
+                + "\nNumber of unassigned tickets in queue: " + numUnassigned
+                + "\nNumber of open tickets in queue: " + numOpen;
+        return breakdown.isEmpty() ? stats : stats + "\n" + breakdown;
+    }
+
+    /*
+     * Format a number of seconds the same way MySQL's
+     * TIME_FORMAT(..., '%Hh %im %ss') does.
+     */
+    static String formatDuration(long seconds) {
+        if (seconds < 0) {
+            return "N/A";
+        }
+        return String.format("%02dh %02dm %02ds",
+                seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+}
@@ -0,0 +1,247 @@
+package queuemonitor;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * This class keeps the closing times of tickets over a rolling window of
+ * days, so that average closing times do not have to be recomputed by KACE.
+ * It is loaded once with all closed tickets of the window, then only fed the
+ * tickets which were just closed.
+ * Tickets are grouped by the hour they were created in. Each hour has a sum,
+ * a count and a small histogram of closing times, stored in primitive ring
+ * buffers which are re-used as the window slides.
+ *
+ * @author bshteinfeld
+ */
+public class RollingAggregator {
+
+    // Histogram bins per doubling of the closing time
+    private static final int BINS_PER_DOUBLING = 4;
+    // Closing times up to 2^24 seconds (194 days) are binned
+    private static final int BINS = 24 * BINS_PER_DOUBLING + 1;
+    private static final long SECONDS_PER_HOUR = 3600;
+
+    // Number of hourly buckets in the ring
+    private final int numBuckets;
+    // Hour (since the epoch) currently held by each bucket, -1 if empty
+    private final long[] bucketHour;
+    private final long[] sums;
+    private final int[] counts;
+    // BINS histogram bins for each bucket
+    private final int[] histogram;
+    // Number of tickets held by all buckets
+    private int total;
+    // Closing time recorded for each ticket, so a ticket which is closed a
+    // second time replaces its first closing time
+    private final HashMap<Integer, Recorded> recorded;
+
+    /*
+     * Closing time recorded for one ticket.
+     */
+    private static class Recorded {
+        private final long hour;
+        private final long duration;
+
+        Recorded(long hour, long duration) {
+            this.hour = hour;
+            this.duration = duration;
+        }
+    }
+
+    /**
+     * Create an aggregator for windows of up to the given number of days.
+     */
+    public RollingAggregator(int maxDays) {
+        numBuckets = maxDays * 24;
+        bucketHour = new long[numBuckets];
+        sums = new long[numBuckets];
+        counts = new int[numBuckets];
+        histogram = new int[numBuckets * BINS];
+        recorded = new HashMap<Integer, Recorded>();
+        for (int i = 0; i < numBuckets; i++) {
+            bucketHour[i] = -1;
+        }
+    }
+
+    /**
+     * Return the longest window kept, in days.
+     */
+    public int getMaxDays() {
+        return numBuckets / 24;
+    }
+
+    /**
+     * Record the closing time of a ticket.
+     *
+     * @param id -- ID of the ticket
+     * @param created -- time the ticket was created, in seconds since the epoch
+     * @param duration -- seconds between creation and closing of the ticket
+     */
+    public synchronized void record(int id, long created, long duration) {
+        if (duration < 0) {
+            return;
+        }
+        long hour = created / SECONDS_PER_HOUR;
+        Recorded old = recorded.get(id);
+        if (old != null) {
+            if (old.hour == hour && old.duration == duration) {
+                return;
+            }
+            remove(old);
+        }
+        int b = bucketFor(hour);
+        if (b < 0) {
+            recorded.remove(id);
+            return;
+        }
+        sums[b] += duration;
+        counts[b]++;
+        total++;
+        histogram[b * BINS + bin(duration)]++;
+        recorded.put(id, new Recorded(hour, duration));
+        if (recorded.size() > 2 * total + 1024) {
+            forgetExpired();
+        }
+    }
+
+    /**
+     * Return the average closing time in seconds of the tickets created in
+     * the last 'days' days, -1 if no such ticket was closed.
+     */
+    public synchronized long average(int days, long now) {
+        long sum = 0;
+        long count = 0;
+        long first = firstHour(days, now);
+        for (int b = 0; b < numBuckets; b++) {
+            if (bucketHour[b] >= first) {
+                sum += sums[b];
+                count += counts[b];
+            }
+        }
+        return count == 0 ? -1 : sum / count;
+    }
+
+    /**
+     * Return the number of tickets created in the last 'days' days which
+     * have been closed.
+     */
+    public synchronized int count(int days, long now) {
+        int count = 0;
+        long first = firstHour(days, now);
+        for (int b = 0; b < numBuckets; b++) {
+            if (bucketHour[b] >= first) {
+                count += counts[b];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return an approximation of the given percentile of the closing time in
+     * seconds of the tickets created in the last 'days' days, -1 if no such
+     * ticket was closed.
+     *
+     * @param percentile -- between 0 and 100
+     */
+    public synchronized long percentile(int days, double percentile, long now) {
+        int[] merged = new int[BINS];
+        long count = 0;
+        long first = firstHour(days, now);
+        for (int b = 0; b < numBuckets; b++) {
+            if (bucketHour[b] >= first) {
+                for (int i = 0; i < BINS; i++) {
+                    merged[i] += histogram[b * BINS + i];
+                }
+                count += counts[b];
+            }
+        }
+        if (count == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BINS; i++) {
+            seen += merged[i];
+            if (seen >= rank) {
+                return binValue(i);
+            }
+        }
+        return binValue(BINS - 1);
+    }
+
+    /*
+     * First hour of a window of 'days' days ending at 'now' (seconds).
+     */
+    private long firstHour(int days, long now) {
+        return now / SECONDS_PER_HOUR - Math.min(days * 24L, numBuckets) + 1;
+    }
+
+    /*
+     * Return the bucket holding the given hour, resetting it if it still
+     * holds an hour which has slid out of the window. Returns -1 if the hour
+     * itself is too old.
+     */
+    private int bucketFor(long hour) {
+        int b = (int) (hour % numBuckets);
+        if (bucketHour[b] == hour) {
+            return b;
+        }
+        if (bucketHour[b] > hour) {
+            return -1;
+        }
+        bucketHour[b] = hour;
+        total -= counts[b];
+        sums[b] = 0;
+        counts[b] = 0;
+        for (int i = 0; i < BINS; i++) {
+            histogram[b * BINS + i] = 0;
+        }
+        return b;
+    }
+
+    private void remove(Recorded old) {
+        int b = (int) (old.hour % numBuckets);
+        if (bucketHour[b] == old.hour) {
+            sums[b] -= old.duration;
+            counts[b]--;
+            total--;
+            histogram[b * BINS + bin(old.duration)]--;
+        }
+    }
+
+    /*
+     * Drop recorded tickets whose bucket has been re-used.
+     */
+    private void forgetExpired() {
+        Iterator<Recorded> it = recorded.values().iterator();
+        while (it.hasNext()) {
+            Recorded r = it.next();
+            if (bucketHour[(int) (r.hour % numBuckets)] != r.hour) {
+                it.remove();
+            }
+        }
+    }
+
+    /*
+     * Histogram bin of a closing time. Bins grow geometrically, with
+     * BINS_PER_DOUBLING bins between each power of two.
+     */
+    private static int bin(long duration) {
+        if (duration < 1) {
+            return 0;
+        }
+        int b = (int) (Math.log(duration) / Math.log(2) * BINS_PER_DOUBLING) + 1;
+        return Math.min(b, BINS - 1);
+    }
+
+    /*
+     * Representative closing time of a bin: the geometric middle of its range.
+     */
+    private static long binValue(int bin) {
+        if (bin == 0) {
+            return 0;
+        }
+        return Math.round(Math.pow(2, (bin - 0.5) / BINS_PER_DOUBLING));
+    }
+}
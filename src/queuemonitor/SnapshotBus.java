@@ -0,0 +1,81 @@
+package queuemonitor;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class fans the snapshots of every polled queue out to any number of
+ * subscribers, such as the windows on the wall displays. The database is
+ * polled once per queue however many displays subscribe to it.
+ *
+ * @author bshteinfeld
+ */
+public class SnapshotBus {
+
+    // Subscribers of each queue, keyed by queue ID
+    private final ConcurrentMap<Integer, List<SnapshotListener>> listeners;
+    // Latest snapshot of each queue, keyed by queue ID
+    private final ConcurrentMap<Integer, QueueSnapshot> latest;
+
+    public SnapshotBus() {
+        listeners = new ConcurrentHashMap<Integer, List<SnapshotListener>>();
+        latest = new ConcurrentHashMap<Integer, QueueSnapshot>();
+    }
+
+    /**
+     * Subscribe to the snapshots of a queue. If the queue already has a
+     * snapshot, the listener receives it straight away.
+     */
+    public void subscribe(int queueID, SnapshotListener listener) {
+        List<SnapshotListener> list = listeners.get(queueID);
+        if (list == null) {
+            list = new CopyOnWriteArrayList<SnapshotListener>();
+            List<SnapshotListener> existing = listeners.putIfAbsent(queueID, list);
+            if (existing != null) {
+                list = existing;
+            }
+        }
+        list.add(listener);
+        QueueSnapshot snapshot = latest.get(queueID);
+        if (snapshot != null) {
+            listener.snapshotPublished(snapshot);
+        }
+    }
+
+    /**
+     * Stop sending snapshots of a queue to a listener.
+     */
+    public void unsubscribe(int queueID, SnapshotListener listener) {
+        List<SnapshotListener> list = listeners.get(queueID);
+        if (list != null) {
+            list.remove(listener);
+        }
+    }
+
+    /**
+     * Send a snapshot to every subscriber of its queue.
+     */
+    public void publish(QueueSnapshot snapshot) {
+        latest.put(snapshot.getQueueID(), snapshot);
+        List<SnapshotListener> list = listeners.get(snapshot.getQueueID());
+        if (list == null) {
+            return;
+        }
+        for (SnapshotListener listener : list) {
+            try {
+                listener.snapshotPublished(snapshot);
+            } catch (RuntimeException ex) {
+                System.err.println("Error publishing snapshot: " + ex);
+            }
+        }
+    }
+
+    /**
+     * Return the latest snapshot of a queue, null if there is none yet.
+     */
+    public QueueSnapshot getLatest(int queueID) {
+        return latest.get(queueID);
+    }
+}
@@ -0,0 +1,285 @@
+package queuemonitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class keeps the last snapshot of each queue on disk, so that the
+ * displays show the queue straight away when the monitor starts, before
+ * KACE has answered or while it cannot be reached. The snapshot is written
+ * to a temporary file, which is forced to the disk and then replaces the old
+ * one, so a crash never leaves half a snapshot behind. It is read back
+ * through a memory mapping.
+ * A snapshot which only differs from the last one written by the time it
+ * was taken, such as those published while nothing changes, is not written.
+ * The cached snapshot keeps the time of the first one with its contents.
+ *
+ * @author bshteinfeld
+ */
+public class SnapshotCache implements SnapshotListener {
+
+    // First int of every file, followed by the format version. Version 2
+    // holds named panels instead of arrivals, departures and delays, and
+    // version 3 the breakdown of the statistics
+    private static final int MAGIC = 0x514D534E;
+    private static final int VERSION = 3;
+    // Fewest bytes a ticket and a panel take, to check counts against
+    private static final int MIN_TICKET_SIZE = 38;
+    private static final int MIN_PANEL_SIZE = 8;
+    // Position and size of the time taken in the file
+    private static final int TIME_TAKEN_OFFSET = 12;
+    private static final int TIME_TAKEN_SIZE = 8;
+
+    private final File dir;
+    // Buffer the snapshot is written to before it goes to disk, re-used
+    private final ByteArrayOutputStream bytes;
+    private final DataOutputStream out;
+    // Bytes of the last snapshot written of each queue
+    private final HashMap<Integer, byte[]> written;
+
+    /**
+     * Create a cache in the given directory, which is created if needed.
+     */
+    public SnapshotCache(File dir) {
+        this.dir = dir;
+        bytes = new ByteArrayOutputStream(16384);
+        out = new DataOutputStream(bytes);
+        written = new HashMap<Integer, byte[]>();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("Unable to create cache directory " + dir);
+        }
+    }
+
+    /**
+     * Write a snapshot to disk, replacing the last one of its queue, unless
+     * only its time differs from that one.
+     */
+    @Override
+    public synchronized void snapshotPublished(QueueSnapshot snapshot) {
+        Path file = file(snapshot.getQueueID());
+        Path tmp = new File(dir, file.getFileName() + ".tmp").toPath();
+        try {
+            bytes.reset();
+            write(snapshot);
+            out.flush();
+            byte[] b = bytes.toByteArray();
+            byte[] last = written.get(snapshot.getQueueID());
+            if (last != null && sameContents(last, b)) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.wrap(b);
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                // The file must be on the disk before it replaces the old one
+                channel.force(true);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            written.put(snapshot.getQueueID(), b);
+        } catch (IOException ex) {
+            System.err.println("Error writing snapshot cache: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Read the last snapshot of a queue.
+     *
+     * @return -- the snapshot, null if there is none, it cannot be read or
+     * it is corrupt
+     */
+    public QueueSnapshot load(int queueID) {
+        Path file = file(queueID);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return null;
+            }
+            QueueSnapshot snapshot = read(buf);
+            if (snapshot == null) {
+                System.err.println("Snapshot cache of queue " + queueID + " is corrupt");
+            }
+            return snapshot;
+        } catch (IOException | BufferUnderflowException | DateTimeException ex) {
+            System.err.println("Error reading snapshot cache: " + ex);
+            return null;
+        }
+    }
+
+    /*
+     * Return true if two written snapshots are the same apart from the time
+     * they were taken.
+     */
+    private static boolean sameContents(byte[] a, byte[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i] && (i < TIME_TAKEN_OFFSET
+                    || i >= TIME_TAKEN_OFFSET + TIME_TAKEN_SIZE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Path file(int queueID) {
+        return new File(dir, "queue-" + queueID + ".snapshot").toPath();
+    }
+
+    private void write(QueueSnapshot snapshot) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(snapshot.getQueueID());
+        out.writeLong(snapshot.getTimeTaken().getTime());
+        out.writeInt(snapshot.getNumUnassigned());
+        out.writeInt(snapshot.getNumOpen());
+        out.writeLong(snapshot.getAverageClosingTime7Days());
+        out.writeLong(snapshot.getAverageClosingTime30Days());
+        List<String> names = snapshot.getPanelNames();
+        out.writeInt(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            writeString(names.get(i));
+            writeTickets(snapshot.getPanels().get(i));
+        }
+        writeString(snapshot.getBreakdown());
+    }
+
+    private void writeTickets(List<Ticket> tickets) throws IOException {
+        out.writeInt(tickets.size());
+        for (Ticket t : tickets) {
+            out.writeInt(t.getID());
+            out.writeInt(t.getQueueID());
+            writeString(t.getTitle());
+            LocalDateTime created = t.getTimeCreated();
+            out.writeBoolean(created != null);
+            if (created != null) {
+                out.writeLong(Timestamp.valueOf(created).getTime());
+            }
+            out.writeInt(t.getOwnerID());
+            out.writeInt(t.getCategoryID());
+            out.writeInt(t.getStatusID());
+            writeString(t.getState());
+            out.writeBoolean(t.getModified() != null);
+            if (t.getModified() != null) {
+                out.writeLong(t.getModified().getTime());
+            }
+            out.writeLong(t.getCloseDuration());
+        }
+    }
+
+    /*
+     * Strings are written as their length in UTF-8 bytes, -1 for null,
+     * followed by the bytes.
+     */
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static QueueSnapshot read(ByteBuffer buf) {
+        int queueID = buf.getInt();
+        Date timeTaken = new Date(buf.getLong());
+        int numUnassigned = buf.getInt();
+        int numOpen = buf.getInt();
+        long avg7 = buf.getLong();
+        long avg30 = buf.getLong();
+        int numPanels = buf.getInt();
+        if (numPanels < 0 || numPanels > buf.remaining() / MIN_PANEL_SIZE) {
+            return null;
+        }
+        ArrayList<String> names = new ArrayList<String>(numPanels);
+        ArrayList<List<Ticket>> panels = new ArrayList<List<Ticket>>(numPanels);
+        for (int i = 0; i < numPanels; i++) {
+            String name = readString(buf);
+            List<Ticket> tickets = readTickets(buf);
+            if (name == null || tickets == null) {
+                return null;
+            }
+            names.add(name);
+            panels.add(tickets);
+        }
+        String breakdown = readString(buf);
+        return new QueueSnapshot(queueID, timeTaken, names, panels,
+                numUnassigned, numOpen, avg7, avg30,
+                breakdown == null ? "" : breakdown);
+    }
+
+    /*
+     * Return null if the number of tickets is negative or more than the
+     * rest of the file can hold.
+     */
+    private static List<Ticket> readTickets(ByteBuffer buf) {
+        int n = buf.getInt();
+        if (n < 0 || n > buf.remaining() / MIN_TICKET_SIZE) {
+            return null;
+        }
+        ArrayList<Ticket> tickets = new ArrayList<Ticket>(n);
+        for (int i = 0; i < n; i++) {
+            int id = buf.getInt();
+            int queueID = buf.getInt();
+            String title = readString(buf);
+            Timestamp created = buf.get() != 0 ? new Timestamp(buf.getLong()) : null;
+            int ownerID = buf.getInt();
+            int categoryID = buf.getInt();
+            int statusID = buf.getInt();
+            String state = readString(buf);
+            Timestamp modified = buf.get() != 0 ? new Timestamp(buf.getLong()) : null;
+            long closeDuration = buf.getLong();
+            tickets.add(new Ticket(id, queueID, title, created, ownerID, categoryID,
+                    statusID, state, modified, closeDuration));
+        }
+        return tickets;
+    }
+
+    /*
+     * Return null for a null string, and for a length which is negative or
+     * runs past the end of the file. In that case the rest of the file is
+     * skipped, so reading on from it fails.
+     */
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buf.remaining()) {
+            buf.position(buf.limit());
+            return null;
+        }
+        byte[] b = new byte[length];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,16 @@
+package queuemonitor;
+
+/**
+ * This interface is implemented by anything which shows or forwards the
+ * snapshots of a queue. Snapshots are delivered on the polling thread, so
+ * implementations must return quickly.
+ *
+ * @author bshteinfeld
+ */
+public interface SnapshotListener {
+
+    /**
+     * Called with every new snapshot of a subscribed queue.
+     */
+    void snapshotPublished(QueueSnapshot snapshot);
+}
@@ -0,0 +1,74 @@
+package queuemonitor;
+
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.SwingUtilities;
+
+/**
+ * This class hands snapshots from the polling thread to the Swing Event
+ * Dispatch Thread. Only the latest snapshot is kept: if a new one arrives
+ * before the previous one was shown, the previous one is dropped, so a slow
+ * repaint never queues up more repaints behind it.
+ *
+ * @author bshteinfeld
+ */
+public class SnapshotPublisher implements SnapshotListener {
+
+    // View showing the snapshots
+    private final QueueFrame frame;
+    // Latest snapshot which has not been shown yet
+    private final AtomicReference<QueueSnapshot> pending;
+    // Time of the last snapshot shown, only used on the EDT
+    private long lastShown;
+    // Shows the pending snapshot, runs on the EDT
+    private final Runnable showPending;
+    // System.nanoTime() when the pending repaint was scheduled
+    private volatile long scheduled;
+    private final QMMetrics metrics = QMMetrics.getInstance();
+
+    /**
+     * Create a publisher for the given view.
+     */
+    public SnapshotPublisher(QueueFrame frame) {
+        this.frame = frame;
+        pending = new AtomicReference<QueueSnapshot>();
+        lastShown = 0;
+        showPending = new Runnable() {
+            @Override
+            public void run() {
+                metrics.getEdtWait().recordSince(scheduled);
+                show(pending.getAndSet(null));
+            }
+        };
+    }
+
+    /**
+     * Publish a snapshot. May be called from any thread; the view is updated
+     * later on the EDT.
+     */
+    @Override
+    public void snapshotPublished(QueueSnapshot snapshot) {
+        // Only schedule a repaint if none is pending yet, otherwise the
+        // pending repaint will pick up this snapshot instead of the old one
+        if (pending.getAndSet(snapshot) == null) {
+            scheduled = System.nanoTime();
+            SwingUtilities.invokeLater(showPending);
+        } else {
+            metrics.snapshotCoalesced();
+        }
+    }
+
+    private void show(QueueSnapshot snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        long taken = snapshot.getTimeTaken().getTime();
+        if (taken < lastShown) {
+            // an older snapshot than the one on screen
+            return;
+        }
+        lastShown = taken;
+        long start = System.nanoTime();
+        frame.showSnapshot(snapshot);
+        metrics.getRender().recordSince(start);
+    }
+}
@@ -0,0 +1,282 @@
+package queuemonitor;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class stands in for the KACE database. It generates a queue of
+ * tickets shaped like the rows of HD_TICKET joined to HD_STATUS, and changes
+ * a few of them every time it is polled, so the Queue Monitor can be
+ * measured and tested without touching the production server.
+ * The same seed always generates the same tickets.
+ *
+ * @author bshteinfeld
+ */
+public class SyntheticTicketSource implements TicketSource {
+
+    // KACE status IDs and the state of each status
+    private static final int NEW_STATUS_ID = 4;
+    private static final int[] STATUS_IDS = {NEW_STATUS_ID, 2, 3, 5, 6};
+    private static final String[] STATUS_STATES = {"opened", "opened", "stalled",
+        "opened", "closed"};
+    private static final int CLOSED_STATUS_ID = 6;
+    // Categories used for tickets, including the ones excluded from delays
+    private static final int[] CATEGORY_IDS = {1, 2, 3, 7, 12, 42, 43, 53};
+    // Number of technicians tickets get assigned to
+    private static final int NUM_OWNERS = 20;
+    private static final String[] NAMES = {"Alice Smith", "Bob Jones",
+        "Carol White", "Dan Brown", "Erin Green", "Frank Black"};
+    private static final String[] PROBLEMS = {"Printer not working",
+        "Password reset", "VPN drops every hour", "Outlook keeps crashing",
+        "Need access to shared drive", "Laptop will not boot",
+        "Monitor flickering", "Request new software licence"};
+    private static final DateTimeFormatter TERMINATION_DATE =
+            DateTimeFormatter.ofPattern("MM/dd/yyyy");
+    private static final DateTimeFormatter NOTICE_DATE =
+            DateTimeFormatter.ofPattern("yyyy MM dd");
+    private static final long DAY_MILLIS = 24L * 3600 * 1000;
+    // Keep at most this many changes for fetchChangedTickets()
+    private static final int MAX_CHANGE_LOG = 100000;
+
+    // Queues the tickets are spread over
+    private final int[] queues;
+    private final Random random;
+    private final Clock clock;
+    // Number of tickets changed every time the source is polled
+    private final int churn;
+    // Open tickets, in no particular order, and the position of each ID
+    private final ArrayList<Ticket> open;
+    private final HashMap<Integer, Integer> positions;
+    // Changed tickets in order of modification time
+    private final ArrayList<Ticket> changeLog;
+    // Closed tickets of the last 90 days
+    private final ArrayList<Ticket> closed;
+    private int nextID;
+
+    /**
+     * Create a source with the given number of open tickets in the IT
+     * Helpdesk queue (1).
+     *
+     * @param numOpen -- number of open and stalled tickets in the queue
+     * @param churn -- number of tickets created, changed or closed per poll
+     * @param seed -- seed of the random generator
+     * @param clock -- clock giving the current time
+     */
+    public SyntheticTicketSource(int numOpen, int churn, long seed, Clock clock) {
+        this(new int[] {1}, numOpen, churn, seed, clock);
+    }
+
+    /**
+     * Create a source with the given number of open tickets, spread evenly
+     * over the given queues.
+     */
+    public SyntheticTicketSource(int[] queues, int numOpen, int churn, long seed,
+            Clock clock) {
+        this.queues = queues;
+        random = new Random(seed);
+        this.clock = clock;
+        this.churn = churn;
+        open = new ArrayList<Ticket>(numOpen);
+        positions = new HashMap<Integer, Integer>(numOpen * 2);
+        changeLog = new ArrayList<Ticket>();
+        closed = new ArrayList<Ticket>();
+        nextID = 1;
+
+        long now = clock.millis();
+        // Closed history, roughly one closed ticket for every open one
+        for (int i = 0; i < numOpen; i++) {
+            long created = now - (long) (random.nextDouble() * 90 * DAY_MILLIS);
+            closed.add(closedTicket(nextID++, created, now));
+        }
+        for (int i = 0; i < numOpen; i++) {
+            long created = now - (long) (random.nextDouble() * 30 * DAY_MILLIS);
+            addOpen(newTicket(nextID++, created, new Timestamp(created)));
+        }
+    }
+
+    @Override
+    public synchronized List<Ticket> fetchOpenTickets() {
+        return new ArrayList<Ticket>(open);
+    }
+
+    @Override
+    public synchronized List<Ticket> fetchChangedTickets(Timestamp modifiedSince,
+            int afterID) {
+        change();
+        ArrayList<Ticket> changed = new ArrayList<Ticket>();
+        // Like the table, only the latest version of each ticket is returned
+        HashSet<Integer> seen = new HashSet<Integer>();
+        // The log is in order of modification time, walk back from the end
+        for (int i = changeLog.size() - 1; i >= 0; i--) {
+            Ticket t = changeLog.get(i);
+            if (t.getModified().before(modifiedSince)) {
+                break;
+            }
+            if (seen.add(t.getID())) {
+                changed.add(t);
+            }
+        }
+        // Tickets above the ID watermark which were not changed since
+        for (int id = afterID + 1; id < nextID; id++) {
+            Integer pos = positions.get(id);
+            if (pos != null && open.get(pos).getModified().before(modifiedSince)
+                    && seen.add(id)) {
+                changed.add(open.get(pos));
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public synchronized List<Ticket> fetchClosedTickets(int days) {
+        long from = clock.millis() - days * DAY_MILLIS;
+        ArrayList<Ticket> result = new ArrayList<Ticket>();
+        for (Ticket t : closed) {
+            if (t.getCreatedSeconds() * 1000 > from) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of open tickets.
+     */
+    public synchronized int size() {
+        return open.size();
+    }
+
+    /*
+     * Apply one poll worth of changes: new tickets arrive, open tickets are
+     * re-assigned and others are closed, keeping the size of the queue.
+     */
+    private void change() {
+        long now = clock.millis();
+        Timestamp modified = new Timestamp(now);
+        for (int i = 0; i < churn; i++) {
+            int kind = random.nextInt(3);
+            if (kind == 0 || open.isEmpty()) {
+                Ticket t = newTicket(nextID++, now, modified);
+                addOpen(t);
+                logChange(t);
+            } else if (kind == 1) {
+                Ticket old = open.get(random.nextInt(open.size()));
+                Ticket t = new Ticket(old.getID(), old.getQueueID(), old.getTitle(),
+                        timestamp(old), random.nextInt(NUM_OWNERS + 1),
+                        old.getCategoryID(), STATUS_IDS[1], STATUS_STATES[1],
+                        modified, -1);
+                open.set(positions.get(t.getID()), t);
+                logChange(t);
+            } else {
+                Ticket old = open.get(random.nextInt(open.size()));
+                removeOpen(old);
+                long created = old.getCreatedSeconds() * 1000;
+                Ticket t = new Ticket(old.getID(), old.getQueueID(), old.getTitle(),
+                        timestamp(old), old.getOwnerID(), old.getCategoryID(),
+                        CLOSED_STATUS_ID, "closed", modified,
+                        (now - created) / 1000);
+                addClosed(t, now);
+                logChange(t);
+                // keep the size of the queue steady
+                Ticket replacement = newTicket(nextID++, now, modified);
+                addOpen(replacement);
+                logChange(replacement);
+            }
+        }
+    }
+
+    private void logChange(Ticket t) {
+        changeLog.add(t);
+        if (changeLog.size() > MAX_CHANGE_LOG) {
+            changeLog.subList(0, MAX_CHANGE_LOG / 2).clear();
+        }
+    }
+
+    private void addClosed(Ticket t, long now) {
+        closed.add(t);
+        // Every so often forget tickets which are older than any window
+        if (closed.size() % 1024 == 0) {
+            long oldest = (now - 90 * DAY_MILLIS) / 1000;
+            ArrayList<Ticket> kept = new ArrayList<Ticket>(closed.size());
+            for (Ticket c : closed) {
+                if (c.getCreatedSeconds() > oldest) {
+                    kept.add(c);
+                }
+            }
+            closed.clear();
+            closed.addAll(kept);
+        }
+    }
+
+    private void addOpen(Ticket t) {
+        positions.put(t.getID(), open.size());
+        open.add(t);
+    }
+
+    private void removeOpen(Ticket t) {
+        int pos = positions.remove(t.getID());
+        Ticket last = open.remove(open.size() - 1);
+        if (last != t) {
+            open.set(pos, last);
+            positions.put(last.getID(), pos);
+        }
+    }
+
+    private static Timestamp timestamp(Ticket t) {
+        return new Timestamp(t.getCreatedSeconds() * 1000);
+    }
+
+    /*
+     * Generate an open ticket. About one in ten are new starters or
+     * terminations, a third of the rest are unassigned.
+     */
+    private Ticket newTicket(int id, long created, Timestamp modified) {
+        LocalDate today = LocalDate.now(clock.withZone(ZoneId.systemDefault()));
+        String name = NAMES[random.nextInt(NAMES.length)];
+        String title;
+        int statusIndex = random.nextInt(STATUS_IDS.length - 1);
+        int roll = random.nextInt(100);
+        if (roll < 5) {
+            title = "[NEW STARTER] " + name;
+            statusIndex = 0;
+        } else if (roll < 8) {
+            LocalDate leaving = today.plusDays(random.nextInt(3) - 1);
+            title = "[TERMINATION]: " + name + " " + TERMINATION_DATE.format(leaving);
+            statusIndex = 0;
+        } else if (roll < 10) {
+            LocalDate leaving = today.plusDays(random.nextInt(3) - 1);
+            title = "New Term Notice - " + name + " " + NOTICE_DATE.format(leaving);
+            statusIndex = 0;
+        } else {
+            title = PROBLEMS[random.nextInt(PROBLEMS.length)];
+        }
+        int owner = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(NUM_OWNERS);
+        return new Ticket(id, queues[id % queues.length], title,
+                new Timestamp(created), owner,
+                CATEGORY_IDS[random.nextInt(CATEGORY_IDS.length)],
+                STATUS_IDS[statusIndex], STATUS_STATES[statusIndex], modified, -1);
+    }
+
+    /*
+     * Generate a closed ticket. Closing times are spread log-normally around
+     * a few hours.
+     */
+    private Ticket closedTicket(int id, long created, long now) {
+        long duration = (long) Math.exp(9 + 1.5 * random.nextGaussian());
+        duration = Math.max(60, Math.min(duration, (now - created) / 1000));
+        return new Ticket(id, queues[id % queues.length],
+                PROBLEMS[random.nextInt(PROBLEMS.length)],
+                new Timestamp(created), 1 + random.nextInt(NUM_OWNERS),
+                CATEGORY_IDS[random.nextInt(CATEGORY_IDS.length)],
+                CLOSED_STATUS_ID, "closed", new Timestamp(created + duration * 1000),
+                duration);
+    }
+}
@@ -1,12 +1,9 @@
 package queuemonitor;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Scanner;
+import java.sql.Timestamp;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,80 +16,121 @@ public class Ticket {
 
     // ID number of ticket
     private int id;
+    // KACE queue the ticket belongs to
+    private int queueID;
     // Description of ticket
     private String title;
-    // Date object representing date created of the ticket
-    private Date timeCreated;
-    // Used to construct a java Date object from the result set
-    private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    // Date and time the ticket was created
+    private LocalDateTime timeCreated;
+    // ID of the technician the ticket is assigned to (0 if unassigned)
+    private int ownerID;
+    // KACE category and status of the ticket
+    private int categoryID;
+    private int statusID;
+    // State of the ticket's status ('opened', 'stalled', 'closed')
+    private String state;
+    // Time the ticket was last modified, null if it never was
+    private Timestamp modified;
+    // Time the ticket was created, in seconds since the epoch
+    private long createdSeconds;
+    // Seconds it took to close the ticket, -1 if it is not closed
+    private long closeDuration;
+    // Date found in the title, only valid once titleDateExtracted is true
+    private LocalDate titleDate;
+    private boolean titleDateExtracted;
+
+    // Dates in termination titles, e.g. 10/19/2026
+    private static final Pattern MONTH_DAY_YEAR = Pattern.compile(
+            "(0[1-9]|1[012])[- /.](0[1-9]|[12][0-9]|3[01])[- /.]((?:19|20)\\d\\d)");
+    // Dates in termination notice titles, e.g. 2026 10 19
+    private static final Pattern YEAR_MONTH_DAY = Pattern.compile(
+            "((?:19|20)\\d\\d)[- /.\\s](0[1-9]|1[012])[- /.\\s](0[1-9]|[12][0-9]|3[01])");
 
     /**
-     * Create a new ticket from a result set
+     * Create a new ticket. Tickets are usually read from a ResultSet by a
+     * TicketRowMapper.
      *
-     * @param rs -- ResultSet returned from search query whose pointer is at the
-     * current ticker
+     * @param id -- ID number of the ticket
+     * @param queueID -- KACE queue of the ticket
+     * @param title -- title of the ticket
+     * @param created -- time the ticket was created
+     * @param ownerID -- ID of the owner, 0 if the ticket is unassigned
+     * @param categoryID -- KACE category of the ticket
+     * @param statusID -- KACE status of the ticket
+     * @param state -- state of the status ('opened', 'stalled', 'closed')
+     * @param modified -- time the ticket was last modified, may be null
+     * @param closeDuration -- seconds it took to close the ticket, -1 if it
+     * is not closed
      */
-    public Ticket(ResultSet rs) {
-        try {
-            // Extract info from current ticket in resultset
-            id = rs.getInt("ID");
-            title = rs.getString("TITLE");
-            String time = rs.getString("CREATED");
-            Scanner s = new Scanner(time);
-            timeCreated = dateFormat.parse(s.next());
-        } catch (SQLException ex) {
-            System.err.println("Unable to read entry");
-        } catch (ParseException ex) {
-            System.err.println("Unable to parse date from entry");
+    public Ticket(int id, int queueID, String title, Timestamp created, int ownerID,
+            int categoryID, int statusID, String state, Timestamp modified,
+            long closeDuration) {
+        this.id = id;
+        this.queueID = queueID;
+        this.title = title;
+        if (created != null) {
+            timeCreated = created.toLocalDateTime();
+            createdSeconds = created.getTime() / 1000;
         }
+        this.ownerID = ownerID;
+        this.categoryID = categoryID;
+        this.statusID = statusID;
+        this.state = state;
+        this.modified = modified;
+        this.closeDuration = closeDuration;
     }
 
     /**
-     * Return the date within a title string.
-     * Different types of tickets have different date formats.
+     * Return the date within a title string, or null if there is none.
+     * Terminations write dates as 10/19/2026 and termination notices as
+     * 2026 10 19; the last date in the title is used, in either format.
+     * The date is only extracted the first time this is called.
      */
-    public Date extractDateFromTitle() {
-        Scanner scan = new Scanner(title);
-        String s = scan.next();
-        
-        if(s.equals("[TERMINATION]:") || s.equals("New"))
-            return getDate(title);
-        else
-            return null;
+    public LocalDate extractDateFromTitle() {
+        if (!titleDateExtracted) {
+            titleDate = title == null ? null : getDate(title);
+            titleDateExtracted = true;
+        }
+        return titleDate;
     }
-    
+
     /*
-    * Given a string, extract the date from it using Regex.
+    * Given a string, extract the last date in it using Regex.
     */
-    private static Date getDate(String desc) {
-        Scanner scan = new Scanner(desc);
-        String s = scan.next();
-        Matcher m = null;
-        DateFormat df = null;
-        
-        if(s.equals("[TERMINATION]:")) {
-            m = Pattern.compile("(0[1-9]|1[012])[- /.](0[1-9]|[12][0-9]|3[01])[- /.](19|20)\\d\\d").matcher(desc);
-            df = new SimpleDateFormat("MM/dd/yyyy");
-        } else if (s.equals("New")) {
-            m = Pattern.compile("(19|20)\\d\\d[- /. /s](0[1-9]|1[012])[- /. /s](0[1-9]|[12][0-9]|3[01])").matcher(desc);
-            df = new SimpleDateFormat("yyyy MM dd");
+    private static LocalDate getDate(String desc) {
+        String y = null, mo = null, d = null;
+        int at = -1;
+        // e.g. 10/19/2026
+        Matcher m = MONTH_DAY_YEAR.matcher(desc);
+        while (m.find()) {
+            at = m.start();
+            y = m.group(3);
+            mo = m.group(1);
+            d = m.group(2);
         }
-
-        String match = "";
-         
+        // e.g. 2026 10 19
+        m = YEAR_MONTH_DAY.matcher(desc);
         while (m.find()) {
-            match = m.group();
+            if (m.start() > at) {
+                at = m.start();
+                y = m.group(1);
+                mo = m.group(2);
+                d = m.group(3);
+            }
         }
-        
+        if (y == null) {
+            return null;
+        }
+
         try {
-            return df.parse(match);
-        } catch (ParseException ex) {
+            return LocalDate.of(Integer.parseInt(y), Integer.parseInt(mo),
+                    Integer.parseInt(d));
+        } catch (DateTimeException ex) {
             System.err.println("Error parsing date");
         }
-
         return null;
     }
-    
+
     /**
      * Return ticket ID. 
      */
@@ -100,11 +138,89 @@ public class Ticket {
         return id;
     }
 
+    /**
+     * Return ID of the KACE queue of the ticket.
+     */
+    public int getQueueID() {
+        return queueID;
+    }
+
+    /**
+     * Return ticket title.
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Return the date and time the ticket was created.
+     */
+    public LocalDateTime getTimeCreated() {
+        return timeCreated;
+    }
+
+    /**
+     * Return ID of the owner of the ticket, 0 if the ticket is unassigned.
+     */
+    public int getOwnerID() {
+        return ownerID;
+    }
+
+    /**
+     * Return KACE category ID of the ticket.
+     */
+    public int getCategoryID() {
+        return categoryID;
+    }
+
+    /**
+     * Return KACE status ID of the ticket.
+     */
+    public int getStatusID() {
+        return statusID;
+    }
+
+    /**
+     * Return state of the ticket's status.
+     */
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * Return the time the ticket was last modified.
+     */
+    public Timestamp getModified() {
+        return modified;
+    }
+
+    /**
+     * Return the time the ticket was created, in seconds since the epoch.
+     */
+    public long getCreatedSeconds() {
+        return createdSeconds;
+    }
+
+    /**
+     * Return the number of seconds it took to close the ticket, -1 if the
+     * ticket is not closed.
+     */
+    public long getCloseDuration() {
+        return closeDuration;
+    }
+
+    /**
+     * Return true if the ticket is open or stalled.
+     */
+    public boolean isOpen() {
+        return "opened".equalsIgnoreCase(state) || "stalled".equalsIgnoreCase(state);
+    }
+
     /**
      * Return string representation of a ticket.
      */
     @Override
     public String toString() {
-        return "T#: " + id + " (" + timeCreated.toString().substring(0, 10) + ")";
+        return TicketFormatter.format(this);
     }
 }
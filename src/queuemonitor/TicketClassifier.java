@@ -0,0 +1,261 @@
+package queuemonitor;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * This class sorts the open tickets of the queue into panels, such as
+ * arrivals, departures and delays, by the rules of each panel. All panels
+ * are built from the same set of tickets in a single pass, so a panel costs
+ * no query to KACE.
+ *
+ * @author bshteinfeld
+ */
+public class TicketClassifier {
+
+    // Panels other than arrivals show the oldest tickets first
+    private static final Comparator<Ticket> OLDEST_FIRST = new Comparator<Ticket>() {
+        @Override
+        public int compare(Ticket t1, Ticket t2) {
+            int c = Long.compare(t1.getCreatedSeconds(), t2.getCreatedSeconds());
+            return c != 0 ? c : Integer.compare(t1.getID(), t2.getID());
+        }
+    };
+    // Arrivals are shown in order of ticket number
+    private static final Comparator<Ticket> BY_ID = new Comparator<Ticket>() {
+        @Override
+        public int compare(Ticket t1, Ticket t2) {
+            return Integer.compare(t1.getID(), t2.getID());
+        }
+    };
+
+    // Statistics shown by default below the counts, see the constructor
+    public static final String DEFAULT_BREAKDOWN = "age,owner";
+    // Most values of a dimension shown in the statistics
+    private static final int BREAKDOWN_VALUES = 3;
+
+    private final TicketRules rules;
+    private final List<String> panelNames;
+    // Statistics shown below the counts, in order
+    private final List<String> breakdown;
+
+    /**
+     * Create a classifier for the panels of the given rules.
+     */
+    public TicketClassifier(TicketRules rules) {
+        this(rules, DEFAULT_BREAKDOWN);
+    }
+
+    /**
+     * Create a classifier for the panels of the given rules.
+     *
+     * @param breakdown -- statistics shown below the counts, separated by
+     * commas, out of age, owner, category, status and averageAge
+     */
+    public TicketClassifier(TicketRules rules, String breakdown) {
+        this.rules = rules;
+        panelNames = rules.getPanelNames();
+        this.breakdown = new ArrayList<String>();
+        for (String name : breakdown.split(",")) {
+            name = name.trim();
+            if (name.equals("age") || name.equals("owner") || name.equals("category")
+                    || name.equals("status") || name.equals("averageAge")) {
+                this.breakdown.add(name);
+            } else if (!name.isEmpty()) {
+                System.err.println("Unknown statistic " + name + ", not shown.");
+            }
+        }
+    }
+
+    /**
+     * Build a snapshot from the open and stalled tickets of a queue. Only
+     * the tickets which end up in a panel are made into Ticket objects.
+     *
+     * @param queueID -- KACE queue the tickets belong to
+     * @param store -- open and stalled tickets of the polled queues
+     * @param averageClosingTime7Days -- average closing time in seconds
+     * @param averageClosingTime30Days -- average closing time in seconds
+     * @param now -- time the tickets were fetched
+     * @return -- the classified snapshot
+     */
+    public QueueSnapshot classify(int queueID, TicketStore store,
+            long averageClosingTime7Days, long averageClosingTime30Days,
+            Date now) {
+        List<TicketRules.Panel> rulesOfPanels = rules.getPanels();
+        int numPanels = rulesOfPanels.size();
+        ArrayList<ArrayList<Ticket>> panels = new ArrayList<ArrayList<Ticket>>(numPanels);
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate today = now.toInstant().atZone(zone).toLocalDate();
+        int todayDay = (int) today.toEpochDay();
+        long nowSeconds = now.getTime() / 1000;
+        // For each panel, tickets created before this are old enough
+        long[] cutoffs = new long[numPanels];
+        for (int p = 0; p < numPanels; p++) {
+            TicketRules.Panel panel = rulesOfPanels.get(p);
+            panels.add(new ArrayList<Ticket>());
+            cutoffs[p] = panel.getOlderThanDays() < 0 ? Long.MAX_VALUE
+                    : today.minusDays(panel.getOlderThanDays()).atStartOfDay(zone)
+                            .toEpochSecond();
+        }
+
+        BitSet slots = store.queueSlots(queueID);
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            for (int p = 0; p < numPanels; p++) {
+                TicketRules.Panel panel = rulesOfPanels.get(p);
+                if (matchesApartFromAge(panel, store, slot, todayDay)
+                        && oldEnough(panel, store, slot, cutoffs[p], nowSeconds)) {
+                    panels.get(p).add(store.ticket(slot));
+                }
+            }
+        }
+
+        for (int p = 0; p < numPanels; p++) {
+            Collections.sort(panels.get(p),
+                    rulesOfPanels.get(p).isSortedByID() ? BY_ID : OLDEST_FIRST);
+        }
+
+        // The counts come from the cube, which the store keeps up to date
+        TicketCube cube = store.cube(todayDay);
+        int any = TicketCube.ANY;
+        return new QueueSnapshot(queueID, now, panelNames, panels,
+                cube.count(queueID, 0, any, any, any),
+                cube.count(queueID, any, any, any, any), averageClosingTime7Days,
+                averageClosingTime30Days, describe(cube, queueID, nowSeconds));
+    }
+
+    /*
+     * Write the statistics of the breakdown, one per line.
+     */
+    private String describe(TicketCube cube, int queueID, long now) {
+        int any = TicketCube.ANY;
+        StringBuilder sb = new StringBuilder();
+        for (String name : breakdown) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            switch (name) {
+                case "age":
+                    sb.append("Open tickets by age (days):");
+                    for (int b = 0; b < TicketCube.getAgeBuckets(); b++) {
+                        sb.append(b == 0 ? " " : ", ").append(TicketCube.getAgeBucketName(b))
+                                .append(": ").append(cube.count(queueID, any, any, any, b));
+                    }
+                    break;
+                case "owner":
+                    sb.append("Most open tickets per technician:");
+                    appendValues(sb, cube.breakdown(queueID, TicketCube.OWNER,
+                            BREAKDOWN_VALUES + 1), true);
+                    break;
+                case "category":
+                    sb.append("Most open tickets per category:");
+                    appendValues(sb, cube.breakdown(queueID, TicketCube.CATEGORY,
+                            BREAKDOWN_VALUES), false);
+                    break;
+                case "status":
+                    sb.append("Most open tickets per status:");
+                    appendValues(sb, cube.breakdown(queueID, TicketCube.STATUS,
+                            BREAKDOWN_VALUES), false);
+                    break;
+                default:
+                    sb.append("Average age of open tickets: ").append(QueueSnapshot
+                            .formatDuration(cube.averageAge(queueID, any, any, any, any, now)));
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /*
+     * Append {value, count} pairs as "#value: count", leaving out the
+     * unassigned tickets if asked to.
+     */
+    private static void appendValues(StringBuilder sb, List<int[]> counts,
+            boolean skipUnassigned) {
+        int shown = 0;
+        for (int[] count : counts) {
+            if ((skipUnassigned && count[0] == 0) || shown == BREAKDOWN_VALUES) {
+                continue;
+            }
+            sb.append(shown == 0 ? " #" : ", #").append(count[0]).append(": ").append(count[1]);
+            shown++;
+        }
+        if (shown == 0) {
+            sb.append(" none");
+        }
+    }
+
+    /**
+     * Return true if a ticket matches every rule of a panel apart from how
+     * long it has been open.
+     *
+     * @param today -- the day it is now, in days since the epoch
+     */
+    static boolean matchesApartFromAge(TicketRules.Panel panel, TicketStore store,
+            int slot, int today) {
+        if (!store.isOpened(slot) && !(panel.includesStalled() && store.isStalled(slot))) {
+            return false;
+        }
+        long titleBits = store.getTitleBits(slot);
+        if (panel.getTitles() != 0 && (titleBits & panel.getTitles()) == 0) {
+            return false;
+        }
+        if ((titleBits & panel.getNotTitles()) != 0) {
+            return false;
+        }
+        if (panel.getStatuses() != null
+                && !contains(panel.getStatuses(), store.getStatusID(slot))) {
+            return false;
+        }
+        int ownerID = store.getOwnerID(slot);
+        if ((panel.getOwner() == TicketRules.Owner.UNASSIGNED && ownerID != 0)
+                || (panel.getOwner() == TicketRules.Owner.ASSIGNED && ownerID == 0)) {
+            return false;
+        }
+        int categoryID = store.getCategoryID(slot);
+        if ((panel.getCategories() != null && !contains(panel.getCategories(), categoryID))
+                || (panel.getNotCategories() != null
+                        && contains(panel.getNotCategories(), categoryID))) {
+            return false;
+        }
+        return !panel.isTitleDateToday() || store.getTitleDate(slot) == today;
+    }
+
+    /**
+     * Return the time a ticket crosses the SLA of a panel, in seconds since
+     * the epoch, Long.MAX_VALUE if it never does.
+     */
+    static long slaDeadline(TicketRules.Panel panel, TicketStore store, int slot) {
+        long created = store.getCreatedSeconds(slot);
+        if (created == TicketStore.NO_TIME || !panel.hasSla()) {
+            return Long.MAX_VALUE;
+        }
+        return created + panel.getSlaSeconds(store.getCategoryID(slot));
+    }
+
+    /*
+     * Check the rules of a panel on how long a ticket has been open.
+     */
+    private static boolean oldEnough(TicketRules.Panel panel, TicketStore store,
+            int slot, long cutoff, long now) {
+        if (cutoff != Long.MAX_VALUE && (store.getCreatedSeconds(slot) == TicketStore.NO_TIME
+                || store.getCreatedSeconds(slot) >= cutoff)) {
+            return false;
+        }
+        return !panel.hasSla() || slaDeadline(panel, store, slot) <= now;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
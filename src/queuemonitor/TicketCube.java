@@ -0,0 +1,281 @@
+package queuemonitor;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class counts the open tickets of each queue by owner, category,
+ * status and age, and keeps every roll-up of those counts up to date as
+ * tickets are added and removed. Any slice, such as the unassigned tickets
+ * of a category, is then read with one lookup instead of a query. The sum
+ * of the created times is kept next to each count, for average ages.
+ * Ages are counted in days since the ticket was created, so the counts are
+ * rebuilt once a day.
+ *
+ * @author bshteinfeld
+ */
+public class TicketCube {
+
+    // Value of a dimension which is rolled up
+    public static final int ANY = Integer.MIN_VALUE;
+    // Dimensions
+    public static final int OWNER = 0;
+    public static final int CATEGORY = 1;
+    public static final int STATUS = 2;
+    public static final int AGE = 3;
+    private static final int DIMENSIONS = 4;
+    // First day of each age bucket, counted in days since created
+    private static final int[] AGE_BUCKET_DAYS = {0, 1, 2, 7, 30};
+    // Names of the age buckets
+    private static final String[] AGE_BUCKET_NAMES = {"0", "1", "2-6", "7-29", "30+"};
+    // Age bucket of tickets created at an unknown time
+    public static final int NO_AGE = -1;
+
+    /*
+     * Coordinates of a cell, ANY where a dimension is rolled up.
+     */
+    private static final class Key {
+        private int queueID;
+        private final int[] values = new int[DIMENSIONS];
+
+        Key copy() {
+            Key key = new Key();
+            key.queueID = queueID;
+            System.arraycopy(values, 0, key.values, 0, DIMENSIONS);
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return queueID == key.queueID && values[0] == key.values[0]
+                    && values[1] == key.values[1] && values[2] == key.values[2]
+                    && values[3] == key.values[3];
+        }
+
+        @Override
+        public int hashCode() {
+            int h = queueID;
+            for (int v : values) {
+                h = h * 31 + v;
+            }
+            return h;
+        }
+    }
+
+    /*
+     * Number of tickets in a cell, and the sum of the created times of
+     * those which have one.
+     */
+    private static final class Cell {
+        private int count;
+        private int timed;
+        private long createdSum;
+    }
+
+    private final HashMap<Key, Cell> cells;
+    // Cells which roll up every dimension but one, by queue and dimension,
+    // so the values of a dimension can be listed
+    private final HashMap<Integer, List<HashMap<Integer, Cell>>> slices;
+    // Key re-used for lookups
+    private final Key probe;
+    // Day the ages are counted from, in days since the epoch
+    private int today;
+
+    public TicketCube(int today) {
+        cells = new HashMap<Key, Cell>();
+        slices = new HashMap<Integer, List<HashMap<Integer, Cell>>>();
+        probe = new Key();
+        this.today = today;
+    }
+
+    /**
+     * Return the day ages are counted from, in days since the epoch.
+     */
+    public int getToday() {
+        return today;
+    }
+
+    /**
+     * Remove every count, and count ages from another day.
+     */
+    public void clear(int today) {
+        cells.clear();
+        slices.clear();
+        this.today = today;
+    }
+
+    /**
+     * Return the age bucket of a ticket created at the given time in
+     * seconds, NO_AGE if it is TicketStore.NO_TIME.
+     */
+    public int ageBucket(long created) {
+        if (created == TicketStore.NO_TIME) {
+            return NO_AGE;
+        }
+        long days = today - Instant.ofEpochSecond(created).atZone(ZoneId.systemDefault())
+                .toLocalDate().toEpochDay();
+        int bucket = 0;
+        while (bucket + 1 < AGE_BUCKET_DAYS.length && days >= AGE_BUCKET_DAYS[bucket + 1]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * Return the number of age buckets.
+     */
+    public static int getAgeBuckets() {
+        return AGE_BUCKET_NAMES.length;
+    }
+
+    /**
+     * Return the name of an age bucket, such as "2-6" (days).
+     */
+    public static String getAgeBucketName(int bucket) {
+        return AGE_BUCKET_NAMES[bucket];
+    }
+
+    /**
+     * Count a ticket.
+     *
+     * @param created -- created time in seconds, TicketStore.NO_TIME if none
+     */
+    public void add(int queueID, int ownerID, int categoryID, int statusID,
+            int ageBucket, long created) {
+        update(queueID, ownerID, categoryID, statusID, ageBucket, created, 1);
+    }
+
+    /**
+     * Stop counting a ticket, given what it was counted with.
+     */
+    public void remove(int queueID, int ownerID, int categoryID, int statusID,
+            int ageBucket, long created) {
+        update(queueID, ownerID, categoryID, statusID, ageBucket, created, -1);
+    }
+
+    /*
+     * Add to or take from every cell the ticket is in, one for each way of
+     * rolling up the four dimensions.
+     */
+    private void update(int queueID, int ownerID, int categoryID, int statusID,
+            int ageBucket, long created, int delta) {
+        int[] values = {ownerID, categoryID, statusID, ageBucket};
+        boolean timed = created != TicketStore.NO_TIME;
+        for (int mask = 0; mask < (1 << DIMENSIONS); mask++) {
+            probe.queueID = queueID;
+            int kept = -1;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                boolean keep = (mask & (1 << d)) != 0;
+                probe.values[d] = keep ? values[d] : ANY;
+                if (keep) {
+                    kept = kept == -1 ? d : -2;
+                }
+            }
+            Cell cell = cells.get(probe);
+            if (cell == null) {
+                if (delta < 0) {
+                    continue;
+                }
+                cell = new Cell();
+                cells.put(probe.copy(), cell);
+                if (kept >= 0) {
+                    slice(queueID, kept).put(values[kept], cell);
+                }
+            }
+            cell.count += delta;
+            if (timed) {
+                cell.timed += delta;
+                cell.createdSum += delta * created;
+            }
+            if (cell.count == 0) {
+                cells.remove(probe);
+                if (kept >= 0) {
+                    slice(queueID, kept).remove(values[kept]);
+                }
+            }
+        }
+    }
+
+    private HashMap<Integer, Cell> slice(int queueID, int dimension) {
+        List<HashMap<Integer, Cell>> ofQueue = slices.get(queueID);
+        if (ofQueue == null) {
+            ofQueue = new ArrayList<HashMap<Integer, Cell>>(DIMENSIONS);
+            for (int d = 0; d < DIMENSIONS; d++) {
+                ofQueue.add(new HashMap<Integer, Cell>());
+            }
+            slices.put(queueID, ofQueue);
+        }
+        return ofQueue.get(dimension);
+    }
+
+    private Cell cell(int queueID, int ownerID, int categoryID, int statusID,
+            int ageBucket) {
+        probe.queueID = queueID;
+        probe.values[OWNER] = ownerID;
+        probe.values[CATEGORY] = categoryID;
+        probe.values[STATUS] = statusID;
+        probe.values[AGE] = ageBucket;
+        return cells.get(probe);
+    }
+
+    /**
+     * Return the number of open tickets of a queue with the given owner,
+     * category, status and age bucket, any of which may be ANY.
+     */
+    public int count(int queueID, int ownerID, int categoryID, int statusID,
+            int ageBucket) {
+        Cell cell = cell(queueID, ownerID, categoryID, statusID, ageBucket);
+        return cell == null ? 0 : cell.count;
+    }
+
+    /**
+     * Return the average age in seconds of the open tickets of a queue with
+     * the given owner, category, status and age bucket, any of which may be
+     * ANY, -1 if none has a created time.
+     *
+     * @param now -- the time now, in seconds since the epoch
+     */
+    public long averageAge(int queueID, int ownerID, int categoryID, int statusID,
+            int ageBucket, long now) {
+        Cell cell = cell(queueID, ownerID, categoryID, statusID, ageBucket);
+        if (cell == null || cell.timed == 0) {
+            return -1;
+        }
+        return Math.max(0, now - cell.createdSum / cell.timed);
+    }
+
+    /**
+     * Return the values of a dimension with the number of open tickets of
+     * the queue which have each, as {value, count} pairs with the largest
+     * count first.
+     *
+     * @param max -- at most this many values are returned
+     */
+    public List<int[]> breakdown(int queueID, int dimension, int max) {
+        ArrayList<int[]> counts = new ArrayList<int[]>();
+        List<HashMap<Integer, Cell>> ofQueue = slices.get(queueID);
+        if (ofQueue != null) {
+            for (Map.Entry<Integer, Cell> e : ofQueue.get(dimension).entrySet()) {
+                counts.add(new int[] {e.getKey(), e.getValue().count});
+            }
+        }
+        Collections.sort(counts, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] c1, int[] c2) {
+                int c = Integer.compare(c2[1], c1[1]);
+                return c != 0 ? c : Integer.compare(c1[0], c2[0]);
+            }
+        });
+        return counts.size() > max ? counts.subList(0, max) : counts;
+    }
+}
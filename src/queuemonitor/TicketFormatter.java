@@ -0,0 +1,79 @@
+package queuemonitor;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * This class turns tickets into the lines shown on the screen. The line of
+ * each ticket is cached by ticket ID and creation date. An instance is not
+ * thread-safe; the view uses one on the Event Dispatch Thread.
+ *
+ * @author bshteinfeld
+ */
+public class TicketFormatter {
+
+    // Same day format as the start of Date.toString(), e.g. "Mon Oct 19".
+    // DateTimeFormatter is immutable and thread-safe.
+    private static final DateTimeFormatter DAY_FORMAT =
+            DateTimeFormatter.ofPattern("EEE MMM dd", Locale.US);
+    // Forget all cached lines when there are more than this many
+    static final int MAX_CACHED = 4096;
+
+    // Cached line of each ticket, keyed by ticket ID
+    private final HashMap<Integer, CachedLine> lines;
+
+    /*
+     * Line of one ticket, valid as long as the creation date is the same.
+     */
+    private static class CachedLine {
+        private final LocalDateTime created;
+        private final String line;
+
+        CachedLine(LocalDateTime created, String line) {
+            this.created = created;
+            this.line = line;
+        }
+    }
+
+    public TicketFormatter() {
+        lines = new HashMap<Integer, CachedLine>();
+    }
+
+    /**
+     * Return the line of a ticket, e.g. "T#: 1234 (Mon Oct 19)". The result
+     * is not cached.
+     */
+    public static String format(Ticket t) {
+        return "T#: " + t.getID() + " (" + formatDay(t.getTimeCreated()) + ")";
+    }
+
+    /**
+     * Format the day of a date, e.g. "Mon Oct 19".
+     */
+    public static String formatDay(LocalDateTime date) {
+        if (date == null) {
+            return "?";
+        }
+        return DAY_FORMAT.format(date);
+    }
+
+    /**
+     * Return the line of a ticket, re-using the line from an earlier call
+     * for the same ticket.
+     */
+    public String line(Ticket t) {
+        LocalDateTime created = t.getTimeCreated();
+        CachedLine cached = lines.get(t.getID());
+        if (cached == null || (created == null ? cached.created != null
+                : !created.equals(cached.created))) {
+            if (lines.size() >= MAX_CACHED) {
+                lines.clear();
+            }
+            cached = new CachedLine(created, format(t));
+            lines.put(t.getID(), cached);
+        }
+        return cached.line;
+    }
+}
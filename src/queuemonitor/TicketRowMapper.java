@@ -0,0 +1,88 @@
+package queuemonitor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * This class turns rows of a ticket query into Tickets. The index of each
+ * column is looked up once per ResultSet instead of by name on every row,
+ * and CREATED and MODIFIED are read as native timestamps.
+ *
+ * @author bshteinfeld
+ */
+public class TicketRowMapper {
+
+    // Column indexes, 0 for columns the query does not return
+    private final int id;
+    private final int queueID;
+    private final int title;
+    private final int created;
+    private final int ownerID;
+    private final int categoryID;
+    private final int statusID;
+    private final int state;
+    private final int modified;
+    private final int closeDuration;
+
+    /**
+     * Reads every row of a ticket query into a list.
+     */
+    public static final DBConnection.ResultSetHandler<ArrayList<Ticket>> READER =
+            new DBConnection.ResultSetHandler<ArrayList<Ticket>>() {
+        @Override
+        public ArrayList<Ticket> handle(ResultSet rs) throws SQLException {
+            TicketRowMapper mapper = new TicketRowMapper(rs);
+            ArrayList<Ticket> tickets = new ArrayList<Ticket>();
+            while (rs.next()) {
+                tickets.add(mapper.map(rs));
+            }
+            return tickets;
+        }
+    };
+
+    /**
+     * Create a mapper for the rows of the given ResultSet.
+     */
+    public TicketRowMapper(ResultSet rs) throws SQLException {
+        id = rs.findColumn("ID");
+        queueID = rs.findColumn("HD_QUEUE_ID");
+        title = optionalColumn(rs, "TITLE");
+        created = rs.findColumn("CREATED");
+        ownerID = optionalColumn(rs, "OWNER_ID");
+        categoryID = optionalColumn(rs, "HD_CATEGORY_ID");
+        statusID = optionalColumn(rs, "HD_STATUS_ID");
+        state = optionalColumn(rs, "STATE");
+        modified = optionalColumn(rs, "MODIFIED");
+        closeDuration = optionalColumn(rs, "CLOSE_DURATION");
+    }
+
+    /**
+     * Create a ticket from the current row of the ResultSet.
+     */
+    public Ticket map(ResultSet rs) throws SQLException {
+        long duration = -1;
+        if (closeDuration > 0) {
+            duration = rs.getLong(closeDuration);
+            if (rs.wasNull()) {
+                duration = -1;
+            }
+        }
+        return new Ticket(rs.getInt(id), rs.getInt(queueID), title > 0 ? rs.getString(title) : null,
+                rs.getTimestamp(created),
+                ownerID > 0 ? rs.getInt(ownerID) : 0,
+                categoryID > 0 ? rs.getInt(categoryID) : 0,
+                statusID > 0 ? rs.getInt(statusID) : 0,
+                state > 0 ? rs.getString(state) : null,
+                modified > 0 ? rs.getTimestamp(modified) : null,
+                duration);
+    }
+
+    private static int optionalColumn(ResultSet rs, String label) {
+        try {
+            return rs.findColumn(label);
+        } catch (SQLException ex) {
+            return 0;
+        }
+    }
+}
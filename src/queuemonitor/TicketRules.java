@@ -0,0 +1,324 @@
+package queuemonitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * This class holds the rules which decide the panel(s) each ticket is shown
+ * in. The panels and their rules are read from the settings, so a panel can
+ * be added without another query to KACE. Each panel is set up with keys
+ * starting with panel.&lt;name&gt;., all optional:
+ * - heading: text shown above the tickets
+ * - title, notTitle: prefixes the title must (not) start with, separated by |
+ * - status: status IDs the ticket must have
+ * - owner: any, unassigned or assigned
+ * - category, notCategory: category IDs the ticket must (not) have
+ * - olderThanDays: created before the start of the day this many days ago
+ * - sla: open for at least this long, e.g. 4h, 90m or 3d
+ * - slaByCategory: the sla of some categories, e.g. 12:4h,17:72h
+ * - titleDate: 'today' if the date in the title must be today
+ * - state: opened (default) or open, which also includes stalled tickets
+ * - sort: oldest (default) or id
+ * Without settings, the Arrivals, Delays and Departures panels are shown as
+ * they always were.
+ *
+ * @author bshteinfeld
+ */
+public class TicketRules {
+
+    // Panels and rules used when the settings have none
+    private static final Properties DEFAULTS = new Properties();
+
+    static {
+        DEFAULTS.setProperty("panels", "arrivals,delays,departures");
+        DEFAULTS.setProperty("panel.arrivals.heading", "Arrivals");
+        DEFAULTS.setProperty("panel.arrivals.title", "[NEW STARTER]");
+        DEFAULTS.setProperty("panel.arrivals.status", "4");
+        DEFAULTS.setProperty("panel.arrivals.sort", "id");
+        DEFAULTS.setProperty("panel.departures.heading", "Departures");
+        DEFAULTS.setProperty("panel.departures.title", "[TERMINATION]|New Term Notice");
+        DEFAULTS.setProperty("panel.departures.status", "4");
+        DEFAULTS.setProperty("panel.departures.titleDate", "today");
+        DEFAULTS.setProperty("panel.delays.heading", "Delays");
+        DEFAULTS.setProperty("panel.delays.notTitle",
+                "[NEW STARTER]|[TERMINATION]|New Term Notice");
+        DEFAULTS.setProperty("panel.delays.owner", "unassigned");
+        DEFAULTS.setProperty("panel.delays.notCategory", "43,42,53");
+        DEFAULTS.setProperty("panel.delays.sla", "24h");
+    }
+
+    /**
+     * Whose tickets a panel shows.
+     */
+    public enum Owner {
+        ANY, UNASSIGNED, ASSIGNED
+    }
+
+    /**
+     * The rules of one panel.
+     */
+    public static class Panel {
+        private final String name;
+        private final String heading;
+        // Bits of the title prefixes of which one is needed (0 for any),
+        // and of those which are not allowed
+        private final long titles;
+        private final long notTitles;
+        // Allowed status IDs, null for any
+        private final int[] statuses;
+        private final Owner owner;
+        // Allowed and excluded category IDs, null for none
+        private final int[] categories;
+        private final int[] notCategories;
+        // Days before today the ticket must have been created, -1 for any
+        private final int olderThanDays;
+        // Seconds the ticket must have been open for, -1 for any, and the
+        // categories which have their own
+        private final long slaSeconds;
+        private final int[] slaCategories;
+        private final long[] slaCategorySeconds;
+        private final boolean titleDateToday;
+        // True if stalled tickets are shown as well as opened ones
+        private final boolean includeStalled;
+        private final boolean sortByID;
+
+        Panel(String name, QMConfig config, TitleTrie trie) {
+            this.name = name;
+            String key = "panel." + name + ".";
+            heading = setting(config, key + "heading", name);
+            titles = prefixes(setting(config, key + "title", null), trie);
+            notTitles = prefixes(setting(config, key + "notTitle", null), trie);
+            statuses = ints(config, key + "status");
+            owner = Owner.valueOf(setting(config, key + "owner", "any").toUpperCase());
+            categories = ints(config, key + "category");
+            notCategories = ints(config, key + "notCategory");
+            String days = setting(config, key + "olderThanDays", null);
+            olderThanDays = days == null ? -1 : Integer.parseInt(days);
+            String sla = setting(config, key + "sla", null);
+            slaSeconds = sla == null ? -1 : seconds(sla);
+            String[] byCategory = setting(config, key + "slaByCategory", "").split(",");
+            ArrayList<String> entries = new ArrayList<String>();
+            for (String entry : byCategory) {
+                if (!entry.trim().isEmpty()) {
+                    entries.add(entry.trim());
+                }
+            }
+            if (!entries.isEmpty() && sla == null) {
+                throw new IllegalArgumentException(key + "slaByCategory needs "
+                        + key + "sla");
+            }
+            slaCategories = new int[entries.size()];
+            slaCategorySeconds = new long[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                String[] parts = entries.get(i).split(":");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid " + key
+                            + "slaByCategory: " + entries.get(i));
+                }
+                slaCategories[i] = Integer.parseInt(parts[0].trim());
+                slaCategorySeconds[i] = seconds(parts[1]);
+            }
+            titleDateToday = "today".equalsIgnoreCase(setting(config, key + "titleDate", ""));
+            includeStalled = "open".equalsIgnoreCase(setting(config, key + "state", "opened"));
+            sortByID = "id".equalsIgnoreCase(setting(config, key + "sort", "oldest"));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHeading() {
+            return heading;
+        }
+
+        public long getTitles() {
+            return titles;
+        }
+
+        public long getNotTitles() {
+            return notTitles;
+        }
+
+        public int[] getStatuses() {
+            return statuses;
+        }
+
+        public Owner getOwner() {
+            return owner;
+        }
+
+        public int[] getCategories() {
+            return categories;
+        }
+
+        public int[] getNotCategories() {
+            return notCategories;
+        }
+
+        public int getOlderThanDays() {
+            return olderThanDays;
+        }
+
+        public boolean hasSla() {
+            return slaSeconds >= 0;
+        }
+
+        /**
+         * Return the seconds a ticket of the given category must have been
+         * open for, -1 if the panel has no SLA.
+         */
+        public long getSlaSeconds(int categoryID) {
+            for (int i = 0; i < slaCategories.length; i++) {
+                if (slaCategories[i] == categoryID) {
+                    return slaCategorySeconds[i];
+                }
+            }
+            return slaSeconds;
+        }
+
+        public boolean isTitleDateToday() {
+            return titleDateToday;
+        }
+
+        public boolean includesStalled() {
+            return includeStalled;
+        }
+
+        public boolean isSortedByID() {
+            return sortByID;
+        }
+    }
+
+    private final TitleTrie trie;
+    private final List<Panel> panels;
+    // Title bits of the panels which need the date in the title, -1 if a
+    // panel needs it whatever the title
+    private final long titleDateMask;
+
+    /**
+     * Read the rules from the settings.
+     *
+     * @throws IllegalArgumentException -- if a rule is invalid
+     */
+    public TicketRules(QMConfig config) {
+        trie = new TitleTrie();
+        ArrayList<Panel> list = new ArrayList<Panel>();
+        long dateMask = 0;
+        for (String name : setting(config, "panels", null).split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            Panel panel = new Panel(name, config, trie);
+            list.add(panel);
+            if (panel.isTitleDateToday()) {
+                dateMask |= panel.getTitles() == 0 ? -1 : panel.getTitles();
+            }
+        }
+        panels = Collections.unmodifiableList(list);
+        titleDateMask = dateMask;
+    }
+
+    /**
+     * Return the rules used without any settings.
+     */
+    public static TicketRules defaults() {
+        return new TicketRules(new QMConfig(new Properties()));
+    }
+
+    /**
+     * Return the panels, in the order they are shown.
+     */
+    public List<Panel> getPanels() {
+        return panels;
+    }
+
+    /**
+     * Return the names of the panels, in the order they are shown.
+     */
+    public List<String> getPanelNames() {
+        ArrayList<String> names = new ArrayList<String>(panels.size());
+        for (Panel panel : panels) {
+            names.add(panel.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Return the bits of the title prefixes the title starts with.
+     */
+    public long matchTitle(String title) {
+        return trie.match(title);
+    }
+
+    /**
+     * Return true if a rule needs the date in a title with the given bits.
+     */
+    public boolean needsTitleDate(long titleBits) {
+        return titleDateMask == -1 || (titleDateMask & titleBits) != 0;
+    }
+
+    private static String setting(QMConfig config, String key, String def) {
+        return config.get(key, DEFAULTS.getProperty(key, def));
+    }
+
+    private static int[] ints(QMConfig config, String key) {
+        String value = setting(config, key, null);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        String[] parts = value.split(",");
+        int[] ints = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            ints[i] = Integer.parseInt(parts[i].trim());
+        }
+        return ints;
+    }
+
+    /*
+     * Parse a duration such as 30s, 90m, 4h or 3d into seconds.
+     */
+    private static long seconds(String value) {
+        value = value.trim();
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException("Empty duration");
+        }
+        long unit;
+        switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+            case 's':
+                unit = 1;
+                break;
+            case 'm':
+                unit = 60;
+                break;
+            case 'h':
+                unit = 3600;
+                break;
+            case 'd':
+                unit = 86400;
+                break;
+            default:
+                throw new IllegalArgumentException("Duration without unit: " + value);
+        }
+        long amount = Long.parseLong(value.substring(0, value.length() - 1).trim());
+        if (amount < 0) {
+            throw new IllegalArgumentException("Negative duration: " + value);
+        }
+        return amount * unit;
+    }
+
+    private static long prefixes(String value, TitleTrie trie) {
+        if (value == null) {
+            return 0;
+        }
+        long bits = 0;
+        for (String prefix : value.split("\\|")) {
+            if (!prefix.isEmpty()) {
+                bits |= trie.add(prefix);
+            }
+        }
+        return bits;
+    }
+}
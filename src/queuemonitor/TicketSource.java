@@ -0,0 +1,32 @@
+package queuemonitor;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * This interface is where the Queue Monitor reads its tickets from. The
+ * KACE database is one source; a synthetic source can stand in for it when
+ * measuring or testing the monitor.
+ * Every method returns null if the tickets could not be read.
+ *
+ * @author bshteinfeld
+ */
+public interface TicketSource {
+
+    /**
+     * Return all open and stalled tickets of the queue.
+     */
+    List<Ticket> fetchOpenTickets();
+
+    /**
+     * Return the tickets of the queue, in any state, which were modified at
+     * or after the given time or whose ID is higher than the given ID.
+     */
+    List<Ticket> fetchChangedTickets(Timestamp modifiedSince, int afterID);
+
+    /**
+     * Return the tickets of the queue created in the last 'days' days which
+     * have been closed, with their closing time.
+     */
+    List<Ticket> fetchClosedTickets(int days);
+}
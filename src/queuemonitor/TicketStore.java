@@ -0,0 +1,535 @@
+package queuemonitor;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * This class holds the open tickets of the polled queues as columns of
+ * primitive arrays, one slot per ticket, instead of one object per ticket.
+ * It is updated in place by every poll, so the memory it uses only depends
+ * on the largest number of tickets it has held. Titles and states are kept
+ * once each in a pool and referred to by number. The slots of each queue
+ * and of each category are kept in bit sets, and the open tickets are
+ * counted in a cube as they are put and removed.
+ * Ticket objects are only made for the tickets which are shown, and kept
+ * until their slot changes.
+ *
+ * @author bshteinfeld
+ */
+public class TicketStore {
+
+    // Created time of tickets which have none
+    public static final long NO_TIME = Long.MIN_VALUE;
+    // Title date of tickets which have none, in days since the epoch
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final byte STATE_OTHER = 0;
+    private static final byte STATE_OPENED = 1;
+    private static final byte STATE_STALLED = 2;
+
+    // Columns, indexed by slot
+    private int[] ids;
+    private int[] queueIDs;
+    private int[] ownerIDs;
+    private int[] categoryIDs;
+    private int[] statusIDs;
+    private int[] titles;
+    private int[] states;
+    // STATE_OPENED, STATE_STALLED or STATE_OTHER, from the state
+    private byte[] stateKinds;
+    // Bits of the title prefixes of the rules the title starts with
+    private long[] titleBits;
+    private int[] titleDates;
+    private long[] createdSeconds;
+    private long[] modifiedMillis;
+    private long[] closeDurations;
+    // Ticket made for a slot, null until asked for or once the slot changes
+    private Ticket[] views;
+    // Slots which hold a ticket
+    private final BitSet used;
+    // Slots put since the changes were last taken
+    private final BitSet changed;
+    // Slot of each ticket ID
+    private final IntMap slots;
+    // Slots of each queue and of each category
+    private final HashMap<Integer, BitSet> byQueue;
+    private final HashMap<Integer, BitSet> byCategory;
+    // Titles and states of the tickets
+    private final StringPool strings;
+    // Counts of the open tickets by owner, category, status and age
+    private final TicketCube cube;
+    // Rules the titles are matched against
+    private final TicketRules rules;
+
+    private static final BitSet EMPTY = new BitSet();
+
+    /**
+     * Create an empty store for tickets classified by the given rules.
+     */
+    public TicketStore(TicketRules rules) {
+        this.rules = rules;
+        ids = new int[INITIAL_CAPACITY];
+        queueIDs = new int[INITIAL_CAPACITY];
+        ownerIDs = new int[INITIAL_CAPACITY];
+        categoryIDs = new int[INITIAL_CAPACITY];
+        statusIDs = new int[INITIAL_CAPACITY];
+        titles = new int[INITIAL_CAPACITY];
+        states = new int[INITIAL_CAPACITY];
+        stateKinds = new byte[INITIAL_CAPACITY];
+        titleBits = new long[INITIAL_CAPACITY];
+        titleDates = new int[INITIAL_CAPACITY];
+        createdSeconds = new long[INITIAL_CAPACITY];
+        modifiedMillis = new long[INITIAL_CAPACITY];
+        closeDurations = new long[INITIAL_CAPACITY];
+        views = new Ticket[INITIAL_CAPACITY];
+        used = new BitSet(INITIAL_CAPACITY);
+        changed = new BitSet(INITIAL_CAPACITY);
+        slots = new IntMap();
+        byQueue = new HashMap<Integer, BitSet>();
+        byCategory = new HashMap<Integer, BitSet>();
+        strings = new StringPool();
+        cube = new TicketCube((int) LocalDate.now().toEpochDay());
+    }
+
+    /**
+     * Return the number of tickets held.
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Return the slot of a ticket, -1 if it is not held.
+     */
+    public int slotOf(int id) {
+        return slots.get(id);
+    }
+
+    /**
+     * Add a ticket, or replace the ticket with the same ID if it differs.
+     *
+     * @return -- true if the store changed
+     */
+    public boolean put(Ticket t) {
+        int slot = slots.get(t.getID());
+        if (slot >= 0) {
+            if (sameContent(slot, t)) {
+                return false;
+            }
+            clear(slot);
+        } else {
+            slot = used.nextClearBit(0);
+            if (slot >= ids.length) {
+                grow();
+            }
+            used.set(slot);
+            slots.put(t.getID(), slot);
+        }
+        ids[slot] = t.getID();
+        queueIDs[slot] = t.getQueueID();
+        ownerIDs[slot] = t.getOwnerID();
+        categoryIDs[slot] = t.getCategoryID();
+        statusIDs[slot] = t.getStatusID();
+        titles[slot] = strings.intern(t.getTitle());
+        states[slot] = strings.intern(t.getState());
+        stateKinds[slot] = "opened".equalsIgnoreCase(t.getState()) ? STATE_OPENED
+                : "stalled".equalsIgnoreCase(t.getState()) ? STATE_STALLED : STATE_OTHER;
+        long bits = rules.matchTitle(t.getTitle());
+        titleBits[slot] = bits;
+        titleDates[slot] = NO_DATE;
+        // Dates are only looked for in the titles which a rule needs them of
+        if (rules.needsTitleDate(bits)) {
+            LocalDate date = t.extractDateFromTitle();
+            if (date != null) {
+                titleDates[slot] = (int) date.toEpochDay();
+            }
+        }
+        createdSeconds[slot] = t.getTimeCreated() == null ? NO_TIME : t.getCreatedSeconds();
+        modifiedMillis[slot] = t.getModified() == null ? NO_TIME : t.getModified().getTime();
+        closeDurations[slot] = t.getCloseDuration();
+        index(byQueue, t.getQueueID()).set(slot);
+        index(byCategory, t.getCategoryID()).set(slot);
+        count(slot, true);
+        changed.set(slot);
+        return true;
+    }
+
+    /**
+     * Remove a ticket.
+     *
+     * @return -- true if the ticket was held
+     */
+    public boolean remove(int id) {
+        int slot = slots.remove(id);
+        if (slot < 0) {
+            return false;
+        }
+        clear(slot);
+        used.clear(slot);
+        changed.clear(slot);
+        return true;
+    }
+
+    /**
+     * Remove every ticket whose slot is not set in the given bit set.
+     *
+     * @return -- the number of tickets removed
+     */
+    public int retain(BitSet keep) {
+        int removed = 0;
+        for (int slot = used.nextSetBit(0); slot >= 0; slot = used.nextSetBit(slot + 1)) {
+            if (!keep.get(slot)) {
+                remove(ids[slot]);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Move the slots put since the last call into the given bit set,
+     * replacing what it held.
+     */
+    public void takeChanged(BitSet into) {
+        into.clear();
+        into.or(changed);
+        changed.clear();
+    }
+
+    /**
+     * Return the slots which hold a ticket. Must not be changed.
+     */
+    public BitSet usedSlots() {
+        return used;
+    }
+
+    /**
+     * Return the slots of the tickets of a queue. Must not be changed.
+     */
+    public BitSet queueSlots(int queueID) {
+        BitSet slotsOfQueue = byQueue.get(queueID);
+        return slotsOfQueue == null ? EMPTY : slotsOfQueue;
+    }
+
+    /**
+     * Return the slots of the tickets of a category. Must not be changed.
+     */
+    public BitSet categorySlots(int categoryID) {
+        BitSet slotsOfCategory = byCategory.get(categoryID);
+        return slotsOfCategory == null ? EMPTY : slotsOfCategory;
+    }
+
+    public int getID(int slot) {
+        return ids[slot];
+    }
+
+    public int getOwnerID(int slot) {
+        return ownerIDs[slot];
+    }
+
+    public int getStatusID(int slot) {
+        return statusIDs[slot];
+    }
+
+    /**
+     * Return true if the state of the ticket is 'opened'.
+     */
+    public boolean isOpened(int slot) {
+        return stateKinds[slot] == STATE_OPENED;
+    }
+
+    /**
+     * Return true if the state of the ticket is 'stalled'.
+     */
+    public boolean isStalled(int slot) {
+        return stateKinds[slot] == STATE_STALLED;
+    }
+
+    /**
+     * Return the bits of the title prefixes of the rules which the title of
+     * the ticket starts with.
+     */
+    public long getTitleBits(int slot) {
+        return titleBits[slot];
+    }
+
+    public int getCategoryID(int slot) {
+        return categoryIDs[slot];
+    }
+
+    /**
+     * Return the date in the title, in days since the epoch, NO_DATE if
+     * there is none or no rule needs it.
+     */
+    public int getTitleDate(int slot) {
+        return titleDates[slot];
+    }
+
+    /**
+     * Return the time the ticket was created in seconds since the epoch,
+     * NO_TIME if it has none.
+     */
+    public long getCreatedSeconds(int slot) {
+        return createdSeconds[slot];
+    }
+
+    /**
+     * Return the counts of the open tickets, with ages counted from the
+     * given day. The counts are rebuilt when the day changes.
+     *
+     * @param today -- days since the epoch
+     */
+    public TicketCube cube(int today) {
+        if (cube.getToday() != today) {
+            cube.clear(today);
+            for (int slot = used.nextSetBit(0); slot >= 0; slot = used.nextSetBit(slot + 1)) {
+                count(slot, true);
+            }
+        }
+        return cube;
+    }
+
+    /**
+     * Return the ticket in a slot as a Ticket. The same object is returned
+     * until the slot changes.
+     */
+    public Ticket ticket(int slot) {
+        Ticket t = views[slot];
+        if (t == null) {
+            t = new Ticket(ids[slot], queueIDs[slot], strings.get(titles[slot]),
+                    createdSeconds[slot] == NO_TIME ? null
+                            : new Timestamp(createdSeconds[slot] * 1000),
+                    ownerIDs[slot], categoryIDs[slot], statusIDs[slot],
+                    strings.get(states[slot]),
+                    modifiedMillis[slot] == NO_TIME ? null
+                            : new Timestamp(modifiedMillis[slot]),
+                    closeDurations[slot]);
+            views[slot] = t;
+        }
+        return t;
+    }
+
+    private boolean sameContent(int slot, Ticket t) {
+        long modified = t.getModified() == null ? NO_TIME : t.getModified().getTime();
+        return modifiedMillis[slot] == modified
+                && ownerIDs[slot] == t.getOwnerID()
+                && statusIDs[slot] == t.getStatusID()
+                && categoryIDs[slot] == t.getCategoryID()
+                && queueIDs[slot] == t.getQueueID()
+                && equal(strings.get(states[slot]), t.getState())
+                && equal(strings.get(titles[slot]), t.getTitle());
+    }
+
+    private static boolean equal(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+
+    /*
+     * Release what a slot refers to before it is re-used.
+     */
+    private void clear(int slot) {
+        count(slot, false);
+        strings.release(titles[slot]);
+        strings.release(states[slot]);
+        byQueue.get(queueIDs[slot]).clear(slot);
+        byCategory.get(categoryIDs[slot]).clear(slot);
+        views[slot] = null;
+    }
+
+    /*
+     * Add an open ticket to the cube, or take it out.
+     */
+    private void count(int slot, boolean add) {
+        if (stateKinds[slot] == STATE_OTHER) {
+            return;
+        }
+        long created = createdSeconds[slot];
+        int bucket = cube.ageBucket(created);
+        if (add) {
+            cube.add(queueIDs[slot], ownerIDs[slot], categoryIDs[slot],
+                    statusIDs[slot], bucket, created);
+        } else {
+            cube.remove(queueIDs[slot], ownerIDs[slot], categoryIDs[slot],
+                    statusIDs[slot], bucket, created);
+        }
+    }
+
+    private static BitSet index(HashMap<Integer, BitSet> indexes, int key) {
+        BitSet bits = indexes.get(key);
+        if (bits == null) {
+            bits = new BitSet();
+            indexes.put(key, bits);
+        }
+        return bits;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        queueIDs = Arrays.copyOf(queueIDs, capacity);
+        ownerIDs = Arrays.copyOf(ownerIDs, capacity);
+        categoryIDs = Arrays.copyOf(categoryIDs, capacity);
+        statusIDs = Arrays.copyOf(statusIDs, capacity);
+        titles = Arrays.copyOf(titles, capacity);
+        states = Arrays.copyOf(states, capacity);
+        stateKinds = Arrays.copyOf(stateKinds, capacity);
+        titleBits = Arrays.copyOf(titleBits, capacity);
+        titleDates = Arrays.copyOf(titleDates, capacity);
+        createdSeconds = Arrays.copyOf(createdSeconds, capacity);
+        modifiedMillis = Arrays.copyOf(modifiedMillis, capacity);
+        closeDurations = Arrays.copyOf(closeDurations, capacity);
+        views = Arrays.copyOf(views, capacity);
+    }
+
+    /*
+     * Map from int keys to non-negative int values by open addressing, so
+     * that no Integer objects are made. Keys must not be 0.
+     */
+    private static class IntMap {
+        private int[] keys;
+        private int[] values;
+        private int size;
+
+        IntMap() {
+            keys = new int[INITIAL_CAPACITY * 2];
+            values = new int[INITIAL_CAPACITY * 2];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        void put(int key, int value) {
+            if ((size + 1) * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == 0) {
+                size++;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        int remove(int key) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != key) {
+                if (keys[i] == 0) {
+                    return -1;
+                }
+                i = (i + 1) & mask;
+            }
+            int value = values[i];
+            size--;
+            // Move back the keys after the hole which would not be found
+            // any more
+            int hole = i;
+            for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    hole = j;
+                }
+            }
+            keys[hole] = 0;
+            return value;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[capacity];
+            values = new int[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /*
+     * Strings referred to by number, each kept once and counted, so that
+     * the string is dropped once no slot refers to it. Null is -1.
+     */
+    private static class StringPool {
+        private final HashMap<String, Integer> numbers;
+        private final ArrayList<String> strings;
+        private int[] refs;
+        // Numbers which are free to be re-used
+        private final BitSet free;
+
+        StringPool() {
+            numbers = new HashMap<String, Integer>();
+            strings = new ArrayList<String>();
+            refs = new int[INITIAL_CAPACITY];
+            free = new BitSet();
+        }
+
+        int intern(String s) {
+            if (s == null) {
+                return -1;
+            }
+            Integer number = numbers.get(s);
+            int n;
+            if (number != null) {
+                n = number;
+            } else {
+                n = free.nextSetBit(0);
+                if (n >= 0) {
+                    free.clear(n);
+                    strings.set(n, s);
+                } else {
+                    n = strings.size();
+                    strings.add(s);
+                    if (n >= refs.length) {
+                        refs = Arrays.copyOf(refs, refs.length * 2);
+                    }
+                }
+                numbers.put(s, n);
+            }
+            refs[n]++;
+            return n;
+        }
+
+        String get(int n) {
+            return n < 0 ? null : strings.get(n);
+        }
+
+        void release(int n) {
+            if (n < 0 || --refs[n] > 0) {
+                return;
+            }
+            numbers.remove(strings.get(n));
+            strings.set(n, null);
+            free.set(n);
+        }
+    }
+}
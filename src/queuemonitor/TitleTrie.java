@@ -0,0 +1,107 @@
+package queuemonitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class matches the start of ticket titles against many prefixes at
+ * once. Each prefix is given a bit, and matching a title returns the bits of
+ * every prefix the title starts with, after reading the title only once.
+ * Like the SQL LIKE operator on KACE, case is ignored.
+ *
+ * @author bshteinfeld
+ */
+public class TitleTrie {
+
+    // At most this many prefixes, one bit of a long each
+    public static final int MAX_PREFIXES = 64;
+
+    /*
+     * One node of the trie. Nodes have few children, so they are kept in
+     * small arrays which are searched in order.
+     */
+    private static class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        // Bits of the prefixes which end at this node
+        private long ends;
+
+        Node child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(char c) {
+            Node child = child(c);
+            if (child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+
+    private final Node root;
+    // Prefixes in order of their bit
+    private final ArrayList<String> prefixes;
+
+    public TitleTrie() {
+        root = new Node();
+        prefixes = new ArrayList<String>();
+    }
+
+    /**
+     * Add a prefix, returning its bit. Adding the same prefix again returns
+     * the same bit.
+     */
+    public long add(String prefix) {
+        for (int i = 0; i < prefixes.size(); i++) {
+            if (prefixes.get(i).equalsIgnoreCase(prefix)) {
+                return 1L << i;
+            }
+        }
+        if (prefixes.size() >= MAX_PREFIXES) {
+            throw new IllegalArgumentException("More than " + MAX_PREFIXES
+                    + " title prefixes");
+        }
+        long bit = 1L << prefixes.size();
+        prefixes.add(prefix);
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.addChild(fold(prefix.charAt(i)));
+        }
+        node.ends |= bit;
+        return bit;
+    }
+
+    /**
+     * Return the bits of every prefix the title starts with, 0 if none or
+     * if the title is null.
+     */
+    public long match(String title) {
+        if (title == null) {
+            return 0;
+        }
+        long matched = root.ends;
+        Node node = root;
+        for (int i = 0; i < title.length(); i++) {
+            node = node.child(fold(title.charAt(i)));
+            if (node == null) {
+                break;
+            }
+            matched |= node.ends;
+        }
+        return matched;
+    }
+
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}